@@ -0,0 +1,71 @@
+package concurrentcube;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+// A 10k move sequence applied with one rotateAll call against the same moves
+// applied with separate rotate calls. Moves around one axis come in runs of
+// the given average length, scrambles with no structure have runs of 1.5.
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class BatchBenchmark {
+    @Param({ "3", "100" })
+    public int size;
+
+    @Param({ "1", "8" })
+    public int run;
+
+    @Param({ "semaphore", "atomic", "condition" })
+    public String protocole;
+
+    @Param({ "10000" })
+    public int moves;
+
+    private Cube cube;
+    private int[] sides;
+    private int[] layers;
+
+    @Setup
+    public void setup() {
+        cube = BenchmarkCubes.create(size, protocole);
+        Random random = new Random(2137);
+        sides = new int[moves];
+        layers = new int[moves];
+        int side = 0;
+        for (int i = 0; i < moves; ++i) {
+            if (random.nextInt(run) == 0) {
+                side = random.nextInt(6);
+            }
+            sides[i] = side;
+            layers[i] = random.nextInt(size);
+        }
+    }
+
+    @Benchmark
+    public void perCall() throws InterruptedException {
+        for (int i = 0; i < moves; ++i) {
+            cube.rotate(sides[i], layers[i]);
+        }
+    }
+
+    @Benchmark
+    public void batched() throws InterruptedException {
+        cube.rotateAll(sides, layers);
+    }
+}
@@ -0,0 +1,51 @@
+package concurrentcube;
+
+// Cubes as the benchmarks need them: no callbacks and a protocole chosen by
+// name so that it can be a JMH parameter.
+final class BenchmarkCubes {
+    private BenchmarkCubes() {
+    }
+
+    static CubeProtocole protocole(String name) {
+        switch (name) {
+
+        case "semaphore": return new SemaphoreProtocole();
+        case "atomic": return new AtomicProtocole();
+        case "condition": return new ConditionProtocole();
+        case "instrumented": return new InstrumentedProtocole(new AtomicProtocole());
+        case "throughput": return new AtomicProtocole(new ThroughputPolicy(64));
+        case "deadline": return new AtomicProtocole(new DeadlinePolicy());
+
+        default: throw new IllegalArgumentException("Unknown protocole: " + name);
+        }
+    }
+
+    static LayerLocks layerLocks(String name, int size) {
+        switch (name) {
+
+        case "semaphore": return new SemaphoreLayerLocks(size);
+        case "striped": return new StripedLayerLocks(64);
+        case "bitmap": return new BitmapLayerLocks(size);
+
+        default: throw new IllegalArgumentException("Unknown layer locks: " + name);
+        }
+    }
+
+    static Cube create(int size, String protocole, String layerLocks) {
+        return new Cube(new ArrayCubeStorage(size), protocole(protocole),
+                        layerLocks(layerLocks, size), (x, y) -> {
+        }, (x, y) -> {
+        }, () -> {
+        }, () -> {
+        });
+    }
+
+    static Cube create(int size, String protocole) {
+        return new Cube(new ArrayCubeStorage(size), protocole(protocole),
+                        (x, y) -> {
+        }, (x, y) -> {
+        }, () -> {
+        }, () -> {
+        });
+    }
+}
@@ -0,0 +1,85 @@
+package concurrentcube;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+// Exporting and importing a cube in the binary format against the String of
+// 'show()' turned into bytes, for a scrambled cube and a nearly solved one.
+// The encoded bytes go to a stream dropping them, so only the encoding is
+// timed.
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgs = { "-Xmx4g" })
+public class CodecBenchmark {
+    @Param({ "100", "1000", "5000" })
+    public int size;
+
+    // Random moves done on the solved cube.
+    @Param({ "10", "10000" })
+    public int moves;
+
+    private Cube cube;
+    private byte[] packed;
+    private byte[] compressed;
+
+    @Setup
+    public void setup() throws InterruptedException, IOException {
+        cube = BenchmarkCubes.create(size, "atomic");
+        Random random = new Random(size);
+        for (int i = 0; i < moves; ++i) {
+            cube.rotate(random.nextInt(6), random.nextInt(size));
+        }
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        cube.encode(out, false);
+        packed = out.toByteArray();
+        out.reset();
+        cube.encode(out, true);
+        compressed = out.toByteArray();
+    }
+
+    @Benchmark
+    public byte[] showString() throws InterruptedException {
+        return cube.show().getBytes(StandardCharsets.US_ASCII);
+    }
+
+    @Benchmark
+    public void encodePacked() throws InterruptedException, IOException {
+        cube.encode(OutputStream.nullOutputStream(), false);
+    }
+
+    @Benchmark
+    public void encodeCompressed() throws InterruptedException, IOException {
+        cube.encode(OutputStream.nullOutputStream(), true);
+    }
+
+    @Benchmark
+    public CubeStorage decodePacked() throws IOException {
+        return CubeCodec.decode(new ByteArrayInputStream(packed));
+    }
+
+    @Benchmark
+    public CubeStorage decodeCompressed() throws IOException {
+        return CubeCodec.decode(new ByteArrayInputStream(compressed));
+    }
+}
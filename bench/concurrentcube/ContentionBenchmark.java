@@ -0,0 +1,98 @@
+package concurrentcube;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Group;
+import org.openjdk.jmh.annotations.GroupThreads;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+// Throughput of many threads sharing one cube. The thread count of the
+// sameAxis, mixedAxes and skewedAxes benchmarks is set with JMH's -t option.
+// The groups mix rotating and showing threads 1:3 or 3:1, scale them with -tg.
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ContentionBenchmark {
+    @Param({ "10", "100" })
+    public int size;
+
+    @Param({ "semaphore", "atomic", "condition", "instrumented", "throughput",
+            "deadline" })
+    public String protocole;
+
+    private Cube cube;
+
+    @Setup
+    public void setup() {
+        cube = BenchmarkCubes.create(size, protocole);
+    }
+
+    private void rotateRandom() throws InterruptedException {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        cube.rotate(random.nextInt(6), random.nextInt(size));
+    }
+
+    // All threads rotate around axis 0 so they may all be inside together,
+    // apart from colliding on layers.
+    @Benchmark
+    public void sameAxis() throws InterruptedException {
+        cube.rotate(0, ThreadLocalRandom.current().nextInt(size));
+    }
+
+    // Threads rotate around random axes and keep switching the groups.
+    @Benchmark
+    public void mixedAxes() throws InterruptedException {
+        rotateRandom();
+    }
+
+    // 95% of the rotations go around axis 0, the rest around random axes.
+    @Benchmark
+    public void skewedAxes() throws InterruptedException {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        int side = random.nextInt(20) == 0 ? random.nextInt(6) : 0;
+        cube.rotate(side, random.nextInt(size));
+    }
+
+    @Benchmark
+    @Group("showHeavy")
+    @GroupThreads(1)
+    public void showHeavyRotate() throws InterruptedException {
+        rotateRandom();
+    }
+
+    @Benchmark
+    @Group("showHeavy")
+    @GroupThreads(3)
+    public void showHeavyShow(Blackhole bh) throws InterruptedException {
+        bh.consume(cube.show());
+    }
+
+    @Benchmark
+    @Group("rotateHeavy")
+    @GroupThreads(3)
+    public void rotateHeavyRotate() throws InterruptedException {
+        rotateRandom();
+    }
+
+    @Benchmark
+    @Group("rotateHeavy")
+    @GroupThreads(1)
+    public void rotateHeavyShow(Blackhole bh) throws InterruptedException {
+        bh.consume(cube.show());
+    }
+}
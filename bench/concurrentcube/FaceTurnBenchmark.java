@@ -0,0 +1,65 @@
+package concurrentcube;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+// A quarter turn of a face in place: the tiled single pass of CubeKernels
+// against a transpose followed by a reflection of the rows, two passes over
+// the face with the transpose walking columns, as normalize() used to do it.
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class FaceTurnBenchmark {
+    @Param({ "64", "256", "1024", "2048", "4096", "8192" })
+    public int size;
+
+    private byte[] face;
+    private final CubeKernels kernels = new CubeKernels();
+
+    @Setup
+    public void setup() {
+        face = new byte[size * size];
+        Random random = new Random(size);
+        for (int i = 0; i < face.length; ++i) {
+            face[i] = (byte) random.nextInt(6);
+        }
+    }
+
+    @Benchmark
+    public void tiled() {
+        kernels.turnFace(face, 0, size, 1, 0, size / 2);
+    }
+
+    @Benchmark
+    public void transposeReflect() {
+        for (int i = 0; i < size; i++) {
+            for (int j = i + 1; j < size; j++) {
+                byte tmp = face[j * size + i];
+                face[j * size + i] = face[i * size + j];
+                face[i * size + j] = tmp;
+            }
+        }
+        for (int i = 0; i < size; i++) {
+            for (int j = 0; j < size / 2; j++) {
+                byte tmp = face[i * size + j];
+                face[i * size + j] = face[i * size + size - j - 1];
+                face[i * size + size - j - 1] = tmp;
+            }
+        }
+    }
+}
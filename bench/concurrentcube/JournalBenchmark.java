@@ -0,0 +1,75 @@
+package concurrentcube;
+
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+// Cost of journaling rotations: the same random rotations on a cube without a
+// journal, with one writing the moves out and with one forcing them to the
+// disk on every flush. A rotation only puts its move into a buffer, the
+// writing is left to the flusher, so it should cost well under a microsecond
+// more than without a journal.
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@Threads(4)
+public class JournalBenchmark {
+    @Param({ "10", "100" })
+    public int size;
+
+    @Param({ "none", "write", "fsync" })
+    public String journal;
+
+    private Cube cube;
+    private CubeJournal cubeJournal;
+    private Path dir;
+
+    @Setup
+    public void setup() throws IOException {
+        cube = BenchmarkCubes.create(size, "atomic");
+        if (!journal.equals("none")) {
+            dir = Files.createTempDirectory("journal");
+            cubeJournal = CubeJournal.open(dir, size, 10, journal.equals("fsync"), 1000000);
+            cubeJournal.recover(cube);
+        }
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        if (cubeJournal != null) {
+            cubeJournal.close();
+            try (DirectoryStream<Path> files = Files.newDirectoryStream(dir)) {
+                for (Path file : files) {
+                    Files.delete(file);
+                }
+            }
+            Files.delete(dir);
+        }
+    }
+
+    @Benchmark
+    public void rotate() throws InterruptedException {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        cube.rotate(random.nextInt(6), random.nextInt(size));
+    }
+}
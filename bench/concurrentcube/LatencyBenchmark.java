@@ -0,0 +1,58 @@
+package concurrentcube;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Group;
+import org.openjdk.jmh.annotations.GroupThreads;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+// Latency distribution (JMH reports p50, p90, p99 and more in sample mode)
+// of rotate and show while both are called concurrently. By default one thread
+// does each; run it with eg. -tg 4,4 for more threads per operation.
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class LatencyBenchmark {
+    @Param({ "10", "100" })
+    public int size;
+
+    @Param({ "semaphore", "atomic", "condition" })
+    public String protocole;
+
+    private Cube cube;
+
+    @Setup
+    public void setup() {
+        cube = BenchmarkCubes.create(size, protocole);
+    }
+
+    @Benchmark
+    @Group("mixed")
+    @GroupThreads(1)
+    public void rotate() throws InterruptedException {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        cube.rotate(random.nextInt(6), random.nextInt(size));
+    }
+
+    @Benchmark
+    @Group("mixed")
+    @GroupThreads(1)
+    public void show(Blackhole bh) throws InterruptedException {
+        bh.consume(cube.show());
+    }
+}
@@ -0,0 +1,53 @@
+package concurrentcube;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+// Rotations around one axis with layers locked by per layer semaphores, 64
+// stripes or a bitmap. Small cubes collide on layers often, huge ones hardly
+// ever. Set the thread count with -t; with -prof gc it also shows what the
+// lazily made semaphores cost.
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Xmx2g")
+public class LayerLocksBenchmark {
+    @Param({ "10", "1000", "8192" })
+    public int size;
+
+    @Param({ "semaphore", "striped", "bitmap" })
+    public String layerLocks;
+
+    private Cube cube;
+
+    @Setup
+    public void setup() {
+        cube = BenchmarkCubes.create(size, "atomic", layerLocks);
+    }
+
+    @Benchmark
+    public void sameAxis() throws InterruptedException {
+        cube.rotate(0, ThreadLocalRandom.current().nextInt(size));
+    }
+
+    // Wide moves lock eight neighbouring layers at once.
+    @Benchmark
+    public void sameAxisRanges() throws InterruptedException {
+        int from = ThreadLocalRandom.current().nextInt(size - 7);
+        cube.rotateRange(0, from, from + 7);
+    }
+}
@@ -0,0 +1,139 @@
+package concurrentcube;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+// Time for a crowd of threads to do a rotation or a show each (one in five
+// shows) on a shared cube.
+//
+// mixed: one thread per task on JVMs with virtual threads. Elsewhere a pool of
+//        256 platform threads runs the tasks, so no more of them wait at once.
+// parked: parked platform threads queued up behind a rotation around axis 0
+//        (none of theirs is, and shows wait for it too) are all let go at once.
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ManyThreadsBenchmark {
+    @Param({ "10" })
+    public int size;
+
+    @Param({ "semaphore", "atomic", "condition" })
+    public String protocole;
+
+    @Param({ "100000" })
+    public int threads;
+
+    @Param({ "2000" })
+    public int parked;
+
+    private CubeProtocole cubeProtocole;
+    private Cube cube;
+
+    @Setup
+    public void setup() {
+        cubeProtocole = BenchmarkCubes.protocole(protocole);
+        cube = new Cube(new ArrayCubeStorage(size), cubeProtocole, (x, y) -> {
+        }, (x, y) -> {
+        }, () -> {
+        }, () -> {
+        });
+    }
+
+    // The parked threads of an invocation of 'parked()', started before it.
+    @State(Scope.Thread)
+    public static class Crowd {
+        private final List<Thread> queued = new ArrayList<>();
+
+        @Setup(Level.Invocation)
+        public void park(ManyThreadsBenchmark benchmark) throws InterruptedException {
+            benchmark.park(queued);
+        }
+    }
+
+    private void park(List<Thread> queued) throws InterruptedException {
+        cubeProtocole.rotateEntry(0);
+        queued.clear();
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        for (int i = 0; i < parked; ++i) {
+            boolean show = random.nextInt(5) == 0;
+            int side = 1 + random.nextInt(4);
+            int layer = random.nextInt(size);
+            Thread t = new Thread(null, () -> {
+                try {
+                    if (show) {
+                        cube.show();
+                    } else {
+                        cube.rotate(side, layer);
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }, "parked-" + i, 1 << 16);
+            t.start();
+            queued.add(t);
+        }
+        for (Thread t : queued) {
+            while (t.getState() != Thread.State.WAITING) {
+                Thread.sleep(1);
+            }
+        }
+    }
+
+    private static ExecutorService perTaskExecutor() {
+        try {
+            return (ExecutorService) Executors.class
+                .getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (ReflectiveOperationException e) {
+            return Executors.newFixedThreadPool(256);
+        }
+    }
+
+    @Benchmark
+    public void mixed() throws InterruptedException {
+        ExecutorService executor = perTaskExecutor();
+        for (int i = 0; i < threads; ++i) {
+            executor.execute(() -> {
+                ThreadLocalRandom random = ThreadLocalRandom.current();
+                try {
+                    if (random.nextInt(5) == 0) {
+                        cube.show();
+                    } else {
+                        cube.rotate(random.nextInt(6), random.nextInt(size));
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            });
+        }
+        executor.shutdown();
+        executor.awaitTermination(1, TimeUnit.MINUTES);
+    }
+
+    @Benchmark
+    public void parked(Crowd crowd) throws InterruptedException {
+        cubeProtocole.rotateExit(0);
+        for (Thread t : crowd.queued) {
+            t.join();
+        }
+    }
+}
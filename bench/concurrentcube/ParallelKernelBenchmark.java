@@ -0,0 +1,73 @@
+package concurrentcube;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+// Single rotations of big cubes with the kernels done by the rotating thread
+// or split across a fork-join pool of four workers. Where the parallel times
+// drop below the serial ones is the size worth passing to setParallelKernels
+// (Cube.PARALLEL_THRESHOLD by default). The biggest cubes need a few hundred
+// megabytes of heap.
+//
+// With a single CPU there is no such size, but the times show the cost of the
+// split: a random layer takes 1.1 us serially against 7.4 us split at 256
+// layers, and 10.4 against 18.3 us at 1024.
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Xmx2g")
+public class ParallelKernelBenchmark {
+    @Param({ "256", "1024", "2048", "4096", "8192" })
+    public int size;
+
+    @Param({ "serial", "parallel" })
+    public String kernels;
+
+    private Cube cube;
+    private ForkJoinPool pool;
+
+    @Setup
+    public void setup() {
+        cube = BenchmarkCubes.create(size, "atomic");
+        if (kernels.equals("parallel")) {
+            pool = new ForkJoinPool(4);
+            cube.setParallelKernels(pool, 0);
+        }
+    }
+
+    @TearDown
+    public void tearDown() {
+        if (pool != null) {
+            pool.shutdown();
+        }
+    }
+
+    @Benchmark
+    public void randomLayer() throws InterruptedException {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        cube.rotate(random.nextInt(6), random.nextInt(size));
+    }
+
+    // Rotate the outer layer and turn its face back right away.
+    @Benchmark
+    public void normalize() throws InterruptedException {
+        cube.rotate(0, 0);
+        cube.normalize();
+    }
+}
@@ -0,0 +1,65 @@
+package concurrentcube;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+// An algorithm of random moves done move by move with 'rotateAll()' against
+// the same algorithm compiled once into a permutation and applied in one go.
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PermutationBenchmark {
+    @Param({ "3", "10", "100" })
+    public int size;
+
+    @Param({ "50" })
+    public int moves;
+
+    private Cube cube;
+    private int[] sides;
+    private int[] layers;
+    private CubePermutation permutation;
+
+    @Setup
+    public void setup() {
+        cube = BenchmarkCubes.create(size, "atomic");
+        Random random = new Random(size);
+        sides = new int[moves];
+        layers = new int[moves];
+        for (int k = 0; k < moves; ++k) {
+            sides[k] = random.nextInt(6);
+            layers[k] = random.nextInt(size);
+        }
+        permutation = CubePermutation.compile(size, sides, layers);
+    }
+
+    @Benchmark
+    public void moveByMove() throws InterruptedException {
+        cube.rotateAll(sides, layers);
+    }
+
+    @Benchmark
+    public void compiled() throws InterruptedException {
+        cube.apply(permutation);
+    }
+
+    @Benchmark
+    public CubePermutation compile() {
+        return CubePermutation.compile(size, sides, layers);
+    }
+}
@@ -0,0 +1,68 @@
+package concurrentcube;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+// Cost of a single rotation done by a lone thread, per cube size. Inner layers
+// only move 4 * size squares, outer ones turn a whole face as well.
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class RotateBenchmark {
+    @Param({ "3", "10", "100", "1000" })
+    public int size;
+
+    @Param({ "semaphore", "atomic", "condition" })
+    public String protocole;
+
+    private Cube cube;
+
+    @Setup
+    public void setup() {
+        cube = BenchmarkCubes.create(size, protocole);
+    }
+
+    @Benchmark
+    public void innerLayer() throws InterruptedException {
+        cube.rotate(ThreadLocalRandom.current().nextInt(6), size / 2);
+    }
+
+    @Benchmark
+    public void outerLayer() throws InterruptedException {
+        cube.rotate(ThreadLocalRandom.current().nextInt(6), 0);
+    }
+
+    @Benchmark
+    public void randomLayer() throws InterruptedException {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        cube.rotate(random.nextInt(6), random.nextInt(size));
+    }
+
+    // A half turn in one call against two quarter turns.
+    @Benchmark
+    public void halfTurn() throws InterruptedException {
+        cube.rotate(ThreadLocalRandom.current().nextInt(6), size / 2, 2);
+    }
+
+    @Benchmark
+    public void twoQuarterTurns() throws InterruptedException {
+        int side = ThreadLocalRandom.current().nextInt(6);
+        cube.rotate(side, size / 2);
+        cube.rotate(side, size / 2);
+    }
+}
@@ -0,0 +1,58 @@
+package concurrentcube;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+// Cost of showing the cube as a fresh String against showing it into buffers
+// owned by the caller.
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ShowBenchmark {
+    @Param({ "10", "100", "1000" })
+    public int size;
+
+    private Cube cube;
+    private byte[] array;
+    private ByteBuffer direct;
+
+    @Setup
+    public void setup() {
+        cube = BenchmarkCubes.create(size, "atomic");
+        array = new byte[6 * size * size];
+        direct = ByteBuffer.allocateDirect(array.length);
+    }
+
+    @Benchmark
+    public String string() throws InterruptedException {
+        return cube.show();
+    }
+
+    @Benchmark
+    public byte[] intoArray() throws InterruptedException {
+        cube.show(array);
+        return array;
+    }
+
+    @Benchmark
+    public ByteBuffer intoDirectBuffer() throws InterruptedException {
+        direct.clear();
+        cube.show(direct);
+        return direct;
+    }
+}
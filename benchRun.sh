@@ -0,0 +1,23 @@
+#!/bin/sh
+
+# Run the JMH benchmarks from the commandline. You need to have the jars of JMH
+# and its dependencies saved here; with Maven 'mvn -Pbench package' builds
+# target/benchmarks.jar instead, see pom.xml. All arguments are passed to JMH, eg.
+#   ./benchRun.sh RotateBenchmark -p size=1000
+#   ./benchRun.sh ContentionBenchmark.sameAxis -t 4
+#   ./benchRun.sh LatencyBenchmark -tg 8,8 -rf json -rff latency.json
+
+JMH=jmh-core-1.37.jar:jmh-generator-annprocess-1.37.jar:jopt-simple-5.0.4.jar:commons-math3-3.6.1.jar
+
+# The SIMD kernels need the incubating Vector API (see CubeKernels).
+VECTOR="--add-modules jdk.incubator.vector"
+
+echo Compling sources...
+
+javac -encoding UTF-8 -d target/bench -cp $JMH $VECTOR \
+      $(ls concurrentcube/*.java | grep -v Test.java) vector/concurrentcube/*.java \
+      bench/concurrentcube/*.java
+
+echo Running benchmarks.
+
+java $VECTOR -cp target/bench:$JMH org.openjdk.jmh.Main "$@"
@@ -0,0 +1,67 @@
+package concurrentcube;
+
+import java.util.Arrays;
+
+// The default storage of a cube: a single flat array holding one byte per
+// square, face after face (see CubeStorage for the exact layout).
+public class ArrayCubeStorage implements CubeStorage {
+    private final int size;
+    private final byte[] squares;
+    private final int[] orientations = new int[6];
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    @Override
+    public byte get(int index) {
+        return squares[index];
+    }
+
+    @Override
+    public void set(int index, byte colour) {
+        squares[index] = colour;
+    }
+
+    @Override
+    public int orientation(int face) {
+        return orientations[face];
+    }
+
+    @Override
+    public void setOrientation(int face, int quarterTurns) {
+        orientations[face] = quarterTurns;
+    }
+
+    @Override
+    public void read(int index, byte[] dst, int offset, int length) {
+        System.arraycopy(squares, index, dst, offset, length);
+    }
+
+    // The squares themselves, for the kernels of the cube (see CubeKernels).
+    byte[] squares() {
+        return squares;
+    }
+
+    @Override
+    public void write(int index, byte[] src, int offset, int length) {
+        System.arraycopy(src, offset, squares, index, length);
+    }
+
+    // Create storage of a solved cube. A cube of size 0, with no squares at
+    // all, is fine, as it always has been.
+    public ArrayCubeStorage(int size) {
+        if (size < 0 || size > MAX_SIZE) {
+            throw new IllegalArgumentException("Invalid cube size: " + size);
+        }
+
+        this.size = size;
+        this.squares = new byte[6 * size * size];
+
+        int faceSize = size * size;
+        for (int f = 0; f < 6; ++f) {
+            Arrays.fill(squares, f * faceSize, (f + 1) * faceSize, (byte) f);
+        }
+    }
+}
@@ -0,0 +1,249 @@
+package concurrentcube;
+
+import java.util.ArrayDeque;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+import java.util.concurrent.locks.ReentrantLock;
+
+// A protocole where admission is decided on a single atomic state word.
+// The word packs the group that currently owns the cube (an axis or shows),
+// the number of threads inside and a flag telling whether anybody is queued.
+// As long as nobody is queued, threads join the running group (or take over
+// an idle cube) and leave it with a single compare-and-set, so rotations
+// around one axis never touch a lock.
+//
+// The first thread that has to wait raises the flag and from then on every
+// arrival takes the slow path: it queues up under a lock in its group's queue
+// and sleeps. The last thread to leave a group hands the cube over to a whole
+// waiting group at once, counting its members in on their behalf and waking
+// exactly them, so a latecomer of the group can never take an earlier
+// waiter's place.
+// The order of hand overs, and whether latecomers may join a running group
+// while somebody waits, is up to a SchedulingPolicy. The default one is the
+// round-robin of SemaphoreProtocole: since nobody joins a running group while
+// somebody waits and every hand over lets a whole group in, each waiting
+// thread gets in after at most three other groups.
+public class AtomicProtocole implements CubeProtocole {
+    // Layout of the state word. The group is stored incremented by one so
+    // that the word of an idle cube with nobody waiting is 0.
+    private static final long COUNT_MASK = 0xFFFFFFFFL;
+    private static final int GROUP_SHIFT = 32;
+    private static final long GROUP_MASK = 7L << GROUP_SHIFT;
+    private static final long QUEUED = 1L << 35;
+
+    private final AtomicLong state = new AtomicLong();
+
+    // The slow path. Everything below is guarded by the lock.
+    private final ReentrantLock lock = new ReentrantLock();
+
+    // A thread sleeping until its group is let in.
+    private static final class Waiter {
+        private final Thread thread = Thread.currentThread();
+        private volatile boolean admitted = false;
+    }
+
+    // Every thread has one waiter, used again whenever it waits: a thread
+    // waits in a single queue at a time and leaves it before it goes on.
+    private static final ThreadLocal<Waiter> WAITERS = ThreadLocal.withInitial(Waiter::new);
+
+    // Threads waiting in every group, one queue per axis and one for shows,
+    // and their numbers.
+    private final List<ArrayDeque<Waiter>> queues = List.of(new ArrayDeque<>(),
+        new ArrayDeque<>(), new ArrayDeque<>(), new ArrayDeque<>());
+    private final int[] waiting = { 0, 0, 0, 0 };
+
+    private final SchedulingPolicy policy;
+
+    public AtomicProtocole() {
+        this(new RoundRobinPolicy());
+    }
+
+    public AtomicProtocole(SchedulingPolicy policy) {
+        this.policy = policy;
+    }
+
+    private static long word(int group, long count, boolean queued) {
+        return ((long) (group + 1) << GROUP_SHIFT) | count | (queued ? QUEUED : 0);
+    }
+
+    private static int group(long word) {
+        return (int) ((word & GROUP_MASK) >>> GROUP_SHIFT) - 1;
+    }
+
+    private static long count(long word) {
+        return word & COUNT_MASK;
+    }
+
+    private static boolean queued(long word) {
+        return (word & QUEUED) != 0;
+    }
+
+    private boolean anyWaiting() {
+        return waiting[0] > 0 || waiting[1] > 0 || waiting[2] > 0
+            || waiting[SchedulingPolicy.SHOWS] > 0;
+    }
+
+    private void enter(int group) throws InterruptedException {
+        long s = state.get();
+        while (!queued(s)) {
+            if (s == 0) {
+                if (state.compareAndSet(0, word(group, 1, false))) {
+                    return;
+                }
+            } else if (group(s) == group) {
+                if (state.compareAndSet(s, s + 1)) {
+                    return;
+                }
+            } else {
+                break;
+            }
+            s = state.get();
+        }
+        slowEnter(group);
+    }
+
+    private void slowEnter(int group) throws InterruptedException {
+        Waiter me = WAITERS.get();
+        lock.lock();
+        try {
+            for (;;) {
+                long s = state.get();
+                if (count(s) == 0) {
+                    // Idle cube. Nobody can be waiting on an idle cube but
+                    // should they be, they keep the flag up.
+                    if (state.compareAndSet(s, word(group, 1, queued(s)))) {
+                        return;
+                    }
+                } else if (group(s) == group && (!queued(s) || policy.mayJoin(group))) {
+                    if (state.compareAndSet(s, s + 1)) {
+                        return;
+                    }
+                } else if (queued(s) || state.compareAndSet(s, s | QUEUED)) {
+                    break;
+                }
+            }
+            me.admitted = false;
+            queues.get(group).add(me);
+            ++waiting[group];
+            policy.queued(group);
+        } finally {
+            lock.unlock();
+        }
+
+        while (!me.admitted) {
+            LockSupport.park(this);
+            if (Thread.interrupted()) {
+                boolean admitted;
+                lock.lock();
+                try {
+                    // Whoever handed the cube over to our group might have
+                    // counted us in already.
+                    admitted = me.admitted;
+                    if (!admitted) {
+                        queues.get(group).remove(me);
+                        policy.dequeued(group, --waiting[group]);
+                        if (!anyWaiting()) {
+                            lowerFlag();
+                        }
+                    }
+                } finally {
+                    lock.unlock();
+                }
+                if (admitted) {
+                    exit();
+                }
+                throw new InterruptedException();
+            }
+        }
+    }
+
+    private void lowerFlag() {
+        long s;
+        do {
+            s = state.get();
+        } while (queued(s) && !state.compareAndSet(s, s & ~QUEUED));
+    }
+
+    private void exit() {
+        for (;;) {
+            long s = state.get();
+            if (count(s) > 1) {
+                if (state.compareAndSet(s, s - 1)) {
+                    return;
+                }
+            } else if (!queued(s)) {
+                if (state.compareAndSet(s, 0)) {
+                    return;
+                }
+            } else {
+                slowExit();
+                return;
+            }
+        }
+    }
+
+    private void slowExit() {
+        lock.lock();
+        try {
+            for (;;) {
+                long s = state.get();
+                if (count(s) > 1) {
+                    if (state.compareAndSet(s, s - 1)) {
+                        return;
+                    }
+                } else if (handOver(s)) {
+                    return;
+                }
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // The last thread of a group lets the next group in. Returns false if the
+    // state changed under our feet and the decision has to be made again.
+    private boolean handOver(long s) {
+        int finished = group(s);
+        int next = policy.next(finished, waiting);
+
+        if (next == -1) {
+            return state.compareAndSet(s, 0);
+        }
+
+        int admitted = waiting[next];
+        waiting[next] = 0;
+        if (!state.compareAndSet(s, word(next, admitted, anyWaiting()))) {
+            waiting[next] = admitted;
+            return false;
+        }
+
+        policy.handedOver(finished, next);
+        for (int i = 0; i < admitted; ++i) {
+            Waiter waiter = queues.get(next).poll();
+            waiter.admitted = true;
+            LockSupport.unpark(waiter.thread);
+        }
+        return true;
+    }
+
+    @Override
+    public void rotateEntry(int ax) throws InterruptedException {
+        enter(ax);
+    }
+
+    @Override
+    public void rotateExit(int ax) {
+        exit();
+    }
+
+    @Override
+    public void showEntry() throws InterruptedException {
+        enter(SchedulingPolicy.SHOWS);
+    }
+
+    @Override
+    public void showExit() {
+        exit();
+    }
+}
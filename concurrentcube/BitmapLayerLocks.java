@@ -0,0 +1,93 @@
+package concurrentcube;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.LockSupport;
+
+// A bit per layer, set while the layer is locked: one bit of memory per layer
+// and one compare-and-set per uncontended lock. Layers of one word that are
+// locked together are taken with a single compare-and-set, all or none, and
+// the words are taken in ascending order, so nobody deadlocks.
+//
+// Nobody queues for a bit: a thread finding it set spins a little, then backs
+// off parking for longer and longer (up to BACKOFF_MAX). It suits layers that
+// are rarely contended. There is no fairness between threads wanting the same
+// layer; a rotation stays in the cube only for the time of its own moves, so
+// in practice they all get through.
+public class BitmapLayerLocks implements LayerLocks {
+    private static final int SPINS = 64;
+    private static final long BACKOFF_MAX = 1 << 20;
+
+    private final AtomicLongArray bits;
+
+    public BitmapLayerLocks(int size) {
+        this.bits = new AtomicLongArray((size + 63) >>> 6);
+    }
+
+    // Set the mask's bits of a word, all of them at once, waiting until they
+    // are all clear.
+    private void lock(int word, long mask) throws InterruptedException {
+        long backoff = 1 << 10;
+        for (int attempt = 0;; ++attempt) {
+            long w = bits.get(word);
+            if ((w & mask) == 0 && bits.compareAndSet(word, w, w | mask)) {
+                return;
+            }
+
+            if (attempt < SPINS) {
+                Thread.onSpinWait();
+            } else {
+                if (Thread.interrupted()) {
+                    throw new InterruptedException();
+                }
+                LockSupport.parkNanos(backoff);
+                backoff = Math.min(2 * backoff, BACKOFF_MAX);
+            }
+        }
+    }
+
+    private void unlock(int word, long mask) {
+        long w;
+        do {
+            w = bits.get(word);
+        } while (!bits.compareAndSet(word, w, w & ~mask));
+    }
+
+    @Override
+    public void acquire(int layer) throws InterruptedException {
+        lock(layer >>> 6, 1L << layer);
+    }
+
+    @Override
+    public void release(int layer) {
+        unlock(layer >>> 6, 1L << layer);
+    }
+
+    @Override
+    public void acquire(int[] layers, int n) throws InterruptedException {
+        for (int i = 0; i < n;) {
+            int word = layers[i] >>> 6;
+            long mask = 0;
+            for (; i < n && layers[i] >>> 6 == word; ++i) {
+                mask |= 1L << layers[i];
+            }
+            try {
+                lock(word, mask);
+            } catch (InterruptedException e) {
+                release(layers, i - Long.bitCount(mask));
+                throw e;
+            }
+        }
+    }
+
+    @Override
+    public void release(int[] layers, int n) {
+        for (int i = 0; i < n;) {
+            int word = layers[i] >>> 6;
+            long mask = 0;
+            for (; i < n && layers[i] >>> 6 == word; ++i) {
+                mask |= 1L << layers[i];
+            }
+            unlock(word, mask);
+        }
+    }
+}
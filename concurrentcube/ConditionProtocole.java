@@ -0,0 +1,131 @@
+package concurrentcube;
+
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+// A protocole built on a single lock with a condition per group, fit for huge
+// numbers of (possibly virtual) threads. Nobody inherits the lock from the
+// thread that woke them up and no thread ever waits holding a monitor, so
+// waiting threads are merely parked and cost nothing but their stack.
+//
+// Every waiting thread takes a ticket of its group. The last thread leaving
+// the cube lets the whole waiting next group in at once: it counts them in
+// and marks all of the group's tickets taken so far as served, then signals
+// them. A woken thread checks its ticket, so spurious wake ups do no harm.
+// The next group and whether latecomers may still join a running group while
+// somebody waits are up to a SchedulingPolicy, by default the round-robin of
+// SemaphoreProtocole.
+public class ConditionProtocole implements CubeProtocole {
+    private final ReentrantLock lock = new ReentrantLock();
+
+    private final Condition[] admitted = { lock.newCondition(), lock.newCondition(),
+        lock.newCondition(), lock.newCondition() };
+
+    // The group inside the cube, -1 if it is empty.
+    private int current = -1;
+
+    // Number of threads inside the cube.
+    private int inside = 0;
+
+    // Number of threads waiting in every group.
+    private final int[] waiting = { 0, 0, 0, 0 };
+
+    // Next ticket to be taken in every group, and the first one not served
+    // yet.
+    private final long[] tickets = { 0, 0, 0, 0 };
+    private final long[] served = { 0, 0, 0, 0 };
+
+    private final SchedulingPolicy policy;
+
+    public ConditionProtocole() {
+        this(new RoundRobinPolicy());
+    }
+
+    public ConditionProtocole(SchedulingPolicy policy) {
+        this.policy = policy;
+    }
+
+    private boolean anyWaiting() {
+        return waiting[0] > 0 || waiting[1] > 0 || waiting[2] > 0
+            || waiting[SchedulingPolicy.SHOWS] > 0;
+    }
+
+    private void enter(int group) throws InterruptedException {
+        lock.lock();
+        try {
+            if (current == -1
+                || (current == group && (!anyWaiting() || policy.mayJoin(group)))) {
+                current = group;
+                ++inside;
+                return;
+            }
+
+            long ticket = tickets[group]++;
+            ++waiting[group];
+            policy.queued(group);
+            try {
+                while (ticket >= served[group]) {
+                    admitted[group].await();
+                }
+            } catch (InterruptedException e) {
+                if (ticket < served[group]) {
+                    // Counted in already, we have to leave properly.
+                    leave();
+                } else {
+                    policy.dequeued(group, --waiting[group]);
+                }
+                throw e;
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void exit() {
+        lock.lock();
+        try {
+            leave();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // Must be called with the lock held.
+    private void leave() {
+        if (--inside > 0) {
+            return;
+        }
+
+        int finished = current;
+        int next = policy.next(finished, waiting);
+
+        current = next;
+        if (next != -1) {
+            inside = waiting[next];
+            waiting[next] = 0;
+            served[next] = tickets[next];
+            policy.handedOver(finished, next);
+            admitted[next].signalAll();
+        }
+    }
+
+    @Override
+    public void rotateEntry(int ax) throws InterruptedException {
+        enter(ax);
+    }
+
+    @Override
+    public void rotateExit(int ax) {
+        exit();
+    }
+
+    @Override
+    public void showEntry() throws InterruptedException {
+        enter(SchedulingPolicy.SHOWS);
+    }
+
+    @Override
+    public void showExit() {
+        exit();
+    }
+}
@@ -4,7 +4,19 @@ package concurrentcube;
 // A class representing a Rubik's cube which one can rotate and look at but
 // with additional support for concurrent usage.
 
-import java.util.concurrent.Semaphore;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.invoke.VarHandle;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicLongArray;
 import java.util.function.BiConsumer;
 
 public class Cube {
@@ -18,392 +30,1168 @@ public class Cube {
     private final Runnable beforeShowing;
     private final Runnable afterShowing;
 
-    // This 3D array represents how the actual cube looks.
-    private final int[][][] faces;
+    // This is how the actual cube looks, see CubeStorage for the layout.
+    private final CubeStorage faces;
 
-    // Global variables for all of the threads to synchronise their movements:
+    // The squares of the storage if it is an ArrayCubeStorage, null otherwise.
+    // The kernels then work on the array directly.
+    private final byte[] squares;
+    private final CubeKernels kernels = CubeKernels.SELECTED;
 
-    // Straight forward mutex for protecting sync variables.
-    private final Semaphore mutex = new Semaphore(1, true);
-
-    // Semaphores for different axis groups to wait on.
-    private final Semaphore[] axisMutices = { new Semaphore(0, true),
-        new Semaphore(0, true), new Semaphore(0, true) };
+    // Admission of threads to the cube.
+    private final CubeProtocole protocole;
 
     // Mutual exclusion between layers.
-    private final Semaphore[] layerMutices;
+    private final LayerLocks layerLocks;
 
-    // Counters of awaiting rotating threads.
-    private final int[] waiting = { 0, 0, 0 };
+    // The protocole if it measures the cube, null otherwise.
+    private final InstrumentedProtocole instruments;
 
-    // Who has the right to rotate, which axis. Set to -1 if there's no willing
-    // thread or the current axis number (0, 1, 2) or 4 as a dummy axis for
-    // 'show()'.
-    private int currentRotor = -1;
+    // Sequence numbers of layers for readers that do not enter the cube. The
+    // holder of a layer's mutex makes its number odd for the time of
+    // a rotation and even again afterwards, so a copy of the cube made while
+    // all of the numbers stayed the same and even is consistent.
+    private final AtomicLongArray layerVersions;
 
-    // Last axis that have been used in rotation.
-    private int lastAx = 0;
+    // Subscribers to the rotations of the cube. The array is replaced as a whole
+    // whenever somebody (un)subscribes.
+    private volatile RotationFeed[] feeds = NO_FEEDS;
+    private static final RotationFeed[] NO_FEEDS = new RotationFeed[0];
 
-    // How many rotors rotating in the critical section right now.
-    private int rotorsCount = 0;
+    // Journal the moves are written to, if any, see CubeJournal.
+    private volatile CubeJournal journal;
 
-    // Same but for showing.
-    private int showersCount = 0;
+    // Guards changes of the feeds and the making of the scheduler.
+    private final Object lock = new Object();
 
-    // Waiting show operations.
-    private int waitingShows = 0;
+    // Scheduler of the asynchronous operations, made on their first use.
+    private volatile CubeScheduler scheduler;
 
-    // Semaphore for 'show()' to wait on.
-    private Semaphore showing = new Semaphore(0, true);
+    // Whether 'rotateRange()' calls the rotation callbacks once per range
+    // rather than once per layer.
+    private volatile boolean rangesReportedOnce = false;
 
-    // Number of waiting threads from different axis than ax.
-    private boolean otherAxWaiting(int ax) {
-        if (ax == 0) {
-            return waiting[1] > 0 && waiting[2] > 0;
-        } else if (ax == 1) {
-            return waiting[0] > 0 && waiting[2] > 0;
-        } else if (ax == 2) {
-            return waiting[0] > 0 && waiting[1] > 0;
-        } else {
-            return waiting[0] > 0 && waiting[1] > 0 && waiting[2] > 0;
+    // Whether groups of 'rotateAll()' fold their moves into net turns of
+    // layers, see 'setCoalescing(boolean)'.
+    private volatile boolean coalescing = false;
+
+    // Size of the chunks in which the cube is written out when it cannot be
+    // written in one go.
+    private static final int SHOW_CHUNK = 1 << 16;
+
+    // Most quadruples of squares of a layer, and most squares of rows of a face,
+    // that one task of a parallel kernel moves.
+    private static final int STRIP_CHUNK = 1 << 10;
+    private static final int FACE_CHUNK = 1 << 16;
+
+    // Number of squares of every strip that a range of layers moves before it
+    // goes on with the next ones, see 'rotateLayers()'.
+    private static final int RANGE_BLOCK = 64;
+
+    // Pool that splits the kernels of a single rotation, and the least cube
+    // size for which it does, see 'setParallelKernels()'. The kernels run in
+    // the rotating thread if the pool is null.
+    private volatile ForkJoinPool kernelPool = null;
+    private volatile int parallelThreshold = Integer.MAX_VALUE;
+
+    // The least cube size whose kernels are split by default. A rotation of a
+    // layer takes about 10 us at 1024 layers and 25 us at 2048, while handing
+    // it out to a pool costs 6 to 8 us (see ParallelKernelBenchmark), so from
+    // 2048 layers on even two workers should pay off.
+    public static final int PARALLEL_THRESHOLD = 2048;
+
+    // How many times 'snapshot()' tries to copy the cube on its own before it
+    // enters the cube like a show.
+    private static final int OPTIMISTIC_SNAPSHOTS = 4;
+
+    // The rotation function. It knows the axis number and the layer (with
+    // respect to the axis) that it wants to rotate (this info is crucial in
+    // synchronising the threads). It also stays vigilant of the original
+    // parameters that were passed to rotate(int, int) (see below) as they are
+    // needed as arguments for {before,after}Rotation procedures. The layer is
+    // turned clockwise (as seen from the original side) quarters times.
+    private void rotate(int ax, int layer, int origSide, int origLayer, int quarters)
+        throws InterruptedException {
+        protocole.rotateEntry(ax);
+        try {
+            acquireLayer(layer);
+            try {
+                criticalRotate(ax, layer, origSide, origLayer, quarters);
+            } finally {
+                layerLocks.release(layer);
+            }
+        } finally {
+            // Even if interrupted or thrown out of by a callback, we might
+            // have been the last of our group.
+            protocole.rotateExit(ax);
+        }
+    }
+
+    // Number of layers of the cube.
+    int size() {
+        return size;
+    }
+
+    // The axis (0 or 1 or 2) a side rotates around.
+    private int axis(int side) {
+        return CubeGeometry.axis(side);
+    }
+
+    // Reëvaluate the layer counted from a side with respect to its axis.
+    private int axisLayer(int side, int layer) {
+        return CubeGeometry.axisLayer(size, side, layer);
+    }
+
+    // User visible rotate function. Will perform a clockwise rotation of
+    // a selected layer facing a given side.
+    public void rotate(int side, int layer) throws InterruptedException {
+        // Call the function defined earlier.
+        rotate(axis(side), axisLayer(side, layer), side, layer, 1);
+    }
+
+    // Rotate a layer facing a side by a number of clockwise quarter turns in
+    // one go: 2 is a half turn, 3 or -1 an anticlockwise turn. The cube is
+    // entered once and the squares move once, but the callbacks are called
+    // for every quarter turn, as if 'rotate(side, layer)' was called that many
+    // times in a row. A multiple of 4 does nothing at all.
+    public void rotate(int side, int layer, int quarterTurns) throws InterruptedException {
+        int quarters = Math.floorMod(quarterTurns, 4);
+        if (quarters != 0) {
+            rotate(axis(side), axisLayer(side, layer), side, layer, quarters);
         }
     }
 
-    // Synchronisation for the rotate operations.
-    private void rotateEntryProtocole(int ax, int layer) throws InterruptedException {
-        mutex.acquire();
+    // Rotate the layers fromLayer..toLayer (both included) facing a side
+    // clockwise together, eg. 0..k for a wide move. The cube is entered once,
+    // all of the layers are locked (in ascending order with respect to the
+    // axis) and moved in one sweep. The callbacks are called for every layer,
+    // unless 'setReportRangesOnce(true)' made them be called once with the
+    // first layer. Feeds always get every layer.
+    public void rotateRange(int side, int fromLayer, int toLayer)
+        throws InterruptedException {
+        if (fromLayer > toLayer) {
+            throw new IllegalArgumentException("Empty range of layers!");
+        }
 
-        if (currentRotor == -1) {
-            currentRotor = ax;
+        int ax = axis(side);
+        int n = toLayer - fromLayer + 1;
+        int first = Math.min(axisLayer(side, fromLayer), axisLayer(side, toLayer));
+        int[] locked = new int[n];
+        for (int i = 0; i < n; ++i) {
+            locked[i] = first + i;
         }
 
-        if (currentRotor != ax || otherAxWaiting(ax) || waitingShows > 0) {
-            ++waiting[ax];
-            mutex.release();
+        protocole.rotateEntry(ax);
+        try {
+            acquireLayers(locked, n);
             try {
-                axisMutices[ax].acquire();
-            } catch (InterruptedException e) {
-                mutex.acquireUninterruptibly();
-                --waiting[ax];
-                mutex.release();
-                throw e;
-            }
-            // We assume we inherit the mutex here having been woken up.
-            --waiting[ax];
-        }
-        ++rotorsCount;
-
-        if (waiting[ax] != 0) {
-            // Waking up fellow thread from the same axis to enter the critical
-            // section with us.
-            axisMutices[ax].release();
-        } else {
-            mutex.release();
+                criticalRotateRange(ax, first, n, side, fromLayer, toLayer);
+            } finally {
+                releaseLayers(locked, n);
+            }
+        } finally {
+            protocole.rotateExit(ax);
+        }
+    }
+
+    // Do the moves a permutation was compiled from in one go: every square
+    // they move is moved once. The cube is all to itself meanwhile (it enters
+    // the group of axis 0 and locks all of its layers), since the moves may go
+    // around any axes. The callbacks are called for every move, the before
+    // ones in order before the squares move and the after ones in order after.
+    public void apply(CubePermutation permutation) throws InterruptedException {
+        if (permutation.size() != size) {
+            throw new IllegalArgumentException("The permutation is not of the cube's size!");
         }
 
+        int[] locked = new int[size];
+        for (int i = 0; i < size; ++i) {
+            locked[i] = i;
+        }
+
+        protocole.rotateEntry(0);
         try {
-            layerMutices[layer].acquire();
-        } catch (InterruptedException e) {
-            mutex.acquireUninterruptibly();
-            --rotorsCount;
-            // We might have been the last of our group.
-            rotateLetOthersIn(ax);
-            throw e;
-        }
-    }
-
-    // This procedure makes the current wake up those that are waiting if the
-    // time is appropriate.
-    private void rotateLetOthersIn(int ax) {
-        // After a rotation we prioritise the entry of a waiting 'show' thread
-        // (and vice versa) thus ending up safe from starvation problems.
-        if (rotorsCount == 0 && waitingShows > 0) {
-            lastAx = ax;
-            // Note: there is no such axis, it is an indicator that we let
-            // showing happen instead of another axis group.
-            currentRotor = 4;
-            showing.release();
-        } else if (rotorsCount == 0) {
-            for (int j = 1; j <= 3; ++j) {
-                int i = (ax + j) % 3;
-                if (waiting[i] > 0) {
-                    currentRotor = i;
-                    axisMutices[i].release();
-                    // I don't release the mutex as it will be inherited
-                    return;
-                }
+            acquireLayers(locked, size);
+            try {
+                criticalApply(permutation);
+            } finally {
+                releaseLayers(locked, size);
             }
-            currentRotor = -1;
-            mutex.release();
-        } else {
-            mutex.release();
+        } finally {
+            protocole.rotateExit(0);
         }
     }
 
-    // The exit protocole after a successful rotation.
-    private void rotateExitProtocole(int ax, int layer) {
-        layerMutices[layer].release();
-        mutex.acquireUninterruptibly();
-        --rotorsCount;
-        rotateLetOthersIn(ax);
+    public void setReportRangesOnce(boolean once) {
+        this.rangesReportedOnce = once;
     }
 
-    // The rotation function. It knows the axis number and the layer (with
-    // respect to the axis) that it wants to rotate (this info is crucial in
-    // synchronising the threads). It also stays vigilant of the original
-    // parameters that were passed to rotate(int, int) (see below) as they are
-    // needed as arguments for {before,after}Rotation procedures.
-    private void rotate(int ax, int layer, int origSide, int origLayer)
-        throws InterruptedException {
-        rotateEntryProtocole(ax, layer);
-        criticalRotate(ax, layer, origSide, origLayer);
-        rotateExitProtocole(ax, layer);
+    // Asynchronous 'rotate()' and 'show()': they queue the operation and return
+    // at once. The operations are done by the common fork-join pool, see
+    // CubeScheduler for the order; a scheduler of one's own can use other
+    // threads.
+    public CompletableFuture<Void> rotateAsync(int side, int layer) {
+        return scheduler().rotateAsync(side, layer);
     }
 
-    // User visible rotate function. Will perform a clockwise rotation of
-    // a selected layer facing a given side.
-    public void rotate(int side, int layer) throws InterruptedException {
-        // this way we get axis as 0 or 1 or 2
-        int ax = side < 3 ? side : oppositeFace(side);
-        int transpLayer = layer;
-        if (side != ax) {
-            // Reëvaluate the layer with respect to the axis.
-            transpLayer = size - layer - 1;
+    public CompletableFuture<String> showAsync() {
+        return scheduler().showAsync();
+    }
+
+    private CubeScheduler scheduler() {
+        CubeScheduler s = scheduler;
+        if (s == null) {
+            synchronized (lock) {
+                s = scheduler;
+                if (s == null) {
+                    s = new CubeScheduler(this, ForkJoinPool.commonPool());
+                    scheduler = s;
+                }
+            }
         }
+        return s;
+    }
 
-        // Call the function defined earlier.
-        rotate(ax, transpLayer, side, layer);
-    }
-    
-    // Synchronisation for the 'show()' operations. Similar to rotations' sync.
-    private void showEntryProtocole() throws InterruptedException {
-        mutex.acquire();
-        if (otherAxWaiting(4) || currentRotor != -1) {
-            ++waitingShows;
-            mutex.release();
+    // Perform a whole sequence of rotations: rotate(sides[k], layers[k]) for
+    // consecutive k. Consecutive moves around the same axis make a group that
+    // enters the cube once, locks all of its layers (in ascending order, as
+    // everyone taking more than one layer must) and then does its moves one
+    // after another, each of them with its own {before,after}Rotation calls.
+    // Other threads see the cube only between groups. If the thread gets
+    // interrupted or a callback throws, the moves done so far stay done.
+    public void rotateAll(int[] sides, int[] layers) throws InterruptedException {
+        if (sides.length != layers.length) {
+            throw new IllegalArgumentException("There must be a layer for every side!");
+        }
+
+        int[] groupLayers = new int[sides.length];
+        int[] turns = null;
+        int from = 0;
+        while (from < sides.length) {
+            int ax = axis(sides[from]);
+            int to = from;
+            for (; to < sides.length && axis(sides[to]) == ax; ++to) {
+                groupLayers[to - from] = axisLayer(sides[to], layers[to]);
+            }
+
+            int locked = distinctSorted(groupLayers, to - from);
+            protocole.rotateEntry(ax);
             try {
-                showing.acquire();
-            } catch (InterruptedException e) {
-                mutex.acquireUninterruptibly();
-                --waitingShows;
-                mutex.release();
-                throw e;
-            }
-            --waitingShows;
-        } else {
-            currentRotor = 4;
+                acquireLayers(groupLayers, locked);
+                try {
+                    if (coalescing) {
+                        if (turns == null) {
+                            turns = new int[sides.length];
+                        }
+                        coalescedRotate(ax, sides, layers, from, to, groupLayers, locked,
+                                        turns);
+                    } else {
+                        for (int k = from; k < to; ++k) {
+                            criticalRotate(ax, axisLayer(sides[k], layers[k]), sides[k],
+                                           layers[k], 1);
+                        }
+                    }
+                } finally {
+                    releaseLayers(groupLayers, locked);
+                }
+            } finally {
+                protocole.rotateExit(ax);
+            }
+
+            from = to;
         }
-        ++showersCount;
-        if (waitingShows != 0) {
-            showing.release();
-        } else {
-            mutex.release();
-        }
-    }
-
-    // Ditto.
-    private void showExitProtocole() throws InterruptedException {
-        mutex.acquireUninterruptibly();
-        --showersCount;
-        if (showersCount == 0) {
-            // Prioritise axes over showings here.
-            for (int j = 1; j <= 3; ++j) {
-                int i = (lastAx + j) % 3;
-                if (waiting[i] > 0) {
-                    currentRotor = i;
-                    axisMutices[i].release();
-                    // I don't release the mutex as it will be inherited
-                    return;
+    }
+
+    // Rotations of one axis commute, so the moves from..to-1 of a group may be
+    // replaced by net quarter turns of its distinct layers (the first n of
+    // groupLayers), counted modulo 4 in turns. Layers whose moves cancel out
+    // are not touched at all. The callbacks and feeds still get every move:
+    // first all of the beforeRotation calls, then the turns, then the moves are
+    // published and afterRotation is called for each.
+    private void coalescedRotate(int ax, int[] sides, int[] layers, int from, int to,
+                                 int[] groupLayers, int n, int[] turns) {
+        Arrays.fill(turns, 0, n, 0);
+        for (int k = from; k < to; ++k) {
+            beforeRotation.accept(sides[k], layers[k]);
+            int i = Arrays.binarySearch(groupLayers, 0, n, axisLayer(sides[k], layers[k]));
+            turns[i] = (turns[i] + (sides[k] == ax ? 1 : 3)) % 4;
+        }
+
+        for (int i = 0; i < n; ++i) {
+            if (turns[i] != 0) {
+                long version = beginChange(groupLayers[i]);
+                try {
+                    turnLayer(ax, groupLayers[i], turns[i]);
+                    journal(ax, groupLayers[i], turns[i]);
+                } finally {
+                    endChange(groupLayers[i], version);
                 }
             }
-            if (waitingShows > 0) {
-                showing.release();
+        }
+
+        for (int k = from; k < to; ++k) {
+            for (RotationFeed feed : feeds) {
+                feed.publish(sides[k], layers[k]);
+            }
+            afterRotation.accept(sides[k], layers[k]);
+        }
+    }
+
+    // Turn on or off coalescing of the moves of 'rotateAll()' (and so of the
+    // asynchronous rotations, see CubeScheduler). Off by default.
+    public void setCoalescing(boolean coalescing) {
+        this.coalescing = coalescing;
+    }
+
+    // Let the kernels of rotations (and of 'normalize()') of cubes of at least
+    // threshold layers be split into chunks done by a pool, while the rotating
+    // thread waits for them. It pays off only for huge cubes, a few thousand
+    // layers (see ParallelKernelBenchmark), and never with a pool of a single
+    // worker, which is thus not used. A null pool turns it off again.
+    public void setParallelKernels(ForkJoinPool pool, int threshold) {
+        this.parallelThreshold = threshold;
+        this.kernelPool = pool;
+    }
+
+    // The same for cubes of at least PARALLEL_THRESHOLD layers.
+    public void setParallelKernels(ForkJoinPool pool) {
+        setParallelKernels(pool, PARALLEL_THRESHOLD);
+    }
+
+    // A piece of a kernel, working on the items (quadruples of strips or rows
+    // of a face) from..to-1. Pieces of one kernel never touch the same squares.
+    private interface Chunk {
+        void run(int from, int to);
+    }
+
+    private static final class ChunkTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final Chunk body;
+        private final int from;
+        private final int to;
+        private final int grain;
+
+        ChunkTask(Chunk body, int from, int to, int grain) {
+            this.body = body;
+            this.from = from;
+            this.to = to;
+            this.grain = grain;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from <= grain) {
+                body.run(from, to);
             } else {
-                currentRotor = -1;
-                mutex.release();
+                int middle = (from + to) >>> 1;
+                invokeAll(new ChunkTask(body, from, middle, grain),
+                          new ChunkTask(body, middle, to, grain));
+            }
+        }
+    }
+
+    // The pool to split the kernels of this cube across, null if they are to
+    // be done in place.
+    private ForkJoinPool parallelPool() {
+        ForkJoinPool pool = kernelPool;
+        if (pool == null || size < parallelThreshold || pool.getParallelism() < 2) {
+            return null;
+        }
+        return pool;
+    }
+
+    // Do a kernel over the items 0..n-1 in chunks of grain items, in parallel
+    // if the cube is big enough.
+    private void forChunks(int n, int grain, Chunk body) {
+        ForkJoinPool pool = parallelPool();
+        if (pool == null) {
+            body.run(0, n);
+        } else {
+            pool.invoke(new ChunkTask(body, 0, n, grain));
+        }
+    }
+
+    // Sort the first n layers and squash duplicates. Returns the number of
+    // distinct layers left at the front of the array.
+    private static int distinctSorted(int[] layers, int n) {
+        Arrays.sort(layers, 0, n);
+        int distinct = 0;
+        for (int i = 0; i < n; ++i) {
+            if (distinct == 0 || layers[distinct - 1] != layers[i]) {
+                layers[distinct++] = layers[i];
             }
+        }
+        return distinct;
+    }
+
+    // Lock a layer. An instrumented cube records how long it took.
+    private void acquireLayer(int layer) throws InterruptedException {
+        if (instruments == null) {
+            layerLocks.acquire(layer);
         } else {
-            mutex.release();
+            long start = System.nanoTime();
+            layerLocks.acquire(layer);
+            instruments.layerWaited(System.nanoTime() - start);
         }
     }
 
+    // Lock the first n of the given layers, which have to be sorted and
+    // distinct. On interruption none of them stay locked.
+    private void acquireLayers(int[] layers, int n) throws InterruptedException {
+        if (instruments == null) {
+            layerLocks.acquire(layers, n);
+        } else {
+            long start = System.nanoTime();
+            layerLocks.acquire(layers, n);
+            instruments.layerWaited(System.nanoTime() - start);
+        }
+    }
+
+    private void releaseLayers(int[] layers, int n) {
+        layerLocks.release(layers, n);
+    }
+
     // Return a string with a representation of the cube.
     public String show() throws InterruptedException {
-        showEntryProtocole();
-        String cubeString = criticalShow();
-        showExitProtocole();
-        return cubeString;
+        protocole.showEntry();
+        try {
+            return criticalShow();
+        } finally {
+            protocole.showExit();
+        }
     }
 
-    private int oppositeFace(int f) {
-        switch (f) {
-            
-        case 0: return 5;
-        case 1: return 3;
-        case 2: return 4;
-        case 3: return 1;
-        case 4: return 2;
-        case 5: return 0;
+    // The following overloads of 'show()' write the very same representation
+    // of the cube as ASCII digits into what the caller gives, so that big cubes
+    // do not need a fresh String every time. They return the number of bytes
+    // written, always 6 * size * size.
+
+    // Write the cube at the beginning of dst.
+    public int show(byte[] dst) throws InterruptedException {
+        int length = 6 * size * size;
+        if (dst.length < length) {
+            throw new IllegalArgumentException("The array is too small for the cube!");
+        }
+
+        protocole.showEntry();
+        try {
+            beforeShowing.run();
+            readDigits(0, dst, 0, length);
+            afterShowing.run();
+        } finally {
+            protocole.showExit();
+        }
+        return length;
+    }
+
+    // Write the cube into dst at its position, which is advanced. Throws
+    // BufferOverflowException (writing nothing) if the cube does not fit.
+    public int show(ByteBuffer dst) throws InterruptedException {
+        int length = 6 * size * size;
+        if (dst.remaining() < length) {
+            throw new BufferOverflowException();
+        }
+
+        protocole.showEntry();
+        try {
+            beforeShowing.run();
+            if (dst.hasArray()) {
+                readDigits(0, dst.array(), dst.arrayOffset() + dst.position(), length);
+                dst.position(dst.position() + length);
+            } else {
+                byte[] chunk = new byte[Math.min(SHOW_CHUNK, length)];
+                for (int from = 0; from < length; from += chunk.length) {
+                    int n = Math.min(chunk.length, length - from);
+                    readDigits(from, chunk, 0, n);
+                    dst.put(chunk, 0, n);
+                }
+            }
+            afterShowing.run();
+        } finally {
+            protocole.showExit();
+        }
+        return length;
+    }
+
+    // Write the cube to a channel. Rotations wait for the whole time it takes
+    // so better do not use it with slow channels.
+    public int show(WritableByteChannel channel)
+        throws InterruptedException, IOException {
+        int length = 6 * size * size;
+        byte[] chunk = new byte[Math.min(SHOW_CHUNK, length)];
+        ByteBuffer buffer = ByteBuffer.wrap(chunk);
+
+        protocole.showEntry();
+        try {
+            beforeShowing.run();
+            for (int from = 0; from < length; from += chunk.length) {
+                int n = Math.min(chunk.length, length - from);
+                readDigits(from, chunk, 0, n);
+                buffer.clear().limit(n);
+                while (buffer.hasRemaining()) {
+                    channel.write(buffer);
+                }
+            }
+            afterShowing.run();
+        } finally {
+            protocole.showExit();
+        }
+        return length;
+    }
+
+    // Write the cube to a stream in the binary format of CubeCodec, with the
+    // faces compressed or not. Like 'show(WritableByteChannel)' rotations wait
+    // until it is all written, 'CubeCodec.encode()' of a snapshot does not
+    // hold them up.
+    public void encode(OutputStream out, boolean compress)
+        throws InterruptedException, IOException {
+        protocole.showEntry();
+        try {
+            beforeShowing.run();
+            CubeCodec.encode(size, this::readSquares, out, compress);
+            afterShowing.run();
+        } finally {
+            protocole.showExit();
+        }
+    }
+
+    // Copy length squares starting from a given index into dst as digits.
+    private void readDigits(int index, byte[] dst, int offset, int length) {
+        readSquares(index, dst, offset, length);
+        kernels.toDigits(dst, offset, length);
+    }
+
+    // Copy length squares starting from a given index into dst. Unlike the
+    // storage's read, the index counts the squares as the cube looks, with the
+    // orientations of faces taken into account.
+    private void readSquares(int index, byte[] dst, int offset, int length) {
+        int faceSize = size * size;
+        while (length > 0) {
+            int f = index / faceSize;
+            int n = Math.min(length, (f + 1) * faceSize - index);
+            if (faces.orientation(f) == 0) {
+                faces.read(index, dst, offset, n);
+            } else {
+                // Rows of a turned face are strided lines of the storage.
+                int i = (index - f * faceSize) / size;
+                int j = (index - f * faceSize) % size;
+                for (int k = 0; k < n; ++i, j = 0) {
+                    int square = squareIndex(f, i, j);
+                    int step = size == 1 ? 0 : squareIndex(f, i, 1) - squareIndex(f, i, 0);
+                    for (; j < size && k < n; ++j, ++k) {
+                        dst[offset + k] = faces.get(square);
+                        square += step;
+                    }
+                }
+            }
+            index += n;
+            offset += n;
+            length -= n;
+        }
+    }
+
+    // Take an immutable snapshot of the cube. Unlike 'show()' it normally does
+    // not wait for anybody: the cube is copied while rotations go on and the
+    // copy is kept only if no rotation has touched the cube in the meantime.
+    // Only if that keeps failing it enters the cube like a show would. Either
+    // way the snapshot shows the cube between complete rotations. The show
+    // callbacks are not called.
+    public CubeSnapshot snapshot() throws InterruptedException {
+        long[] versions = new long[size];
+        for (int attempt = 0; attempt < OPTIMISTIC_SNAPSHOTS; ++attempt) {
+            if (readVersions(versions)) {
+                CubeSnapshot snapshot = copyFaces();
+                // Reads of the squares must not float below the validation.
+                VarHandle.acquireFence();
+                if (versionsUnchanged(versions)) {
+                    return snapshot;
+                }
+            }
+            Thread.onSpinWait();
+        }
+
+        protocole.showEntry();
+        try {
+            return copyFaces();
+        } finally {
+            protocole.showExit();
+        }
+    }
+
+    // Read the sequence numbers of all layers. Returns false if some layer is
+    // being rotated right now.
+    private boolean readVersions(long[] versions) {
+        for (int layer = 0; layer < size; ++layer) {
+            versions[layer] = layerVersions.get(layer);
+            if ((versions[layer] & 1) != 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private boolean versionsUnchanged(long[] versions) {
+        for (int layer = 0; layer < size; ++layer) {
+            if (layerVersions.get(layer) != versions[layer]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private CubeSnapshot copyFaces() {
+        int faceSize = size * size;
+        byte[][] copy = new byte[6][faceSize];
+        for (int f = 0; f < 6; ++f) {
+            readSquares(f * faceSize, copy[f], 0, faceSize);
+        }
+        return new CubeSnapshot(size, copy);
+    }
+
+    // Statistics of the cube's synchronisation, if it was built with an
+    // InstrumentedProtocole.
+    public CubeStats stats() {
+        if (instruments == null) {
+            throw new IllegalStateException("The cube is not instrumented!");
+        }
+        return instruments.getStats();
+    }
+
+    // Write a move done in the critical section to the journal, if there is
+    // one.
+    private void journal(int side, int layer, int quarters) {
+        CubeJournal j = journal;
+        if (j != null) {
+            j.append(side, layer, quarters);
+        }
+    }
+
+    // The rest is for CubeJournal. 'restore()' and 'replay()' may only be
+    // used before anybody else uses the cube.
+
+    void attach(CubeJournal journal) {
+        this.journal = journal;
+    }
+
+    // Paint the cube with given squares (as the cube looks, one per byte).
+    void restore(byte[] squares) {
+        for (int f = 0; f < 6; ++f) {
+            faces.setOrientation(f, 0);
+        }
+        for (int i = 0; i < squares.length; ++i) {
+            faces.set(i, squares[i]);
+        }
+    }
+
+    // Do a move of the journal again, without callbacks or feeds.
+    void replay(int side, int layer, int quarters) {
+        int ax = axis(side);
+        turnLayer(ax, axisLayer(side, layer), ax == side ? quarters : 4 - quarters);
+    }
+
+    // Copy the squares into a given array while no rotation is in the cube,
+    // after the journal has started a new log for the moves to come. Returns
+    // the number of that log.
+    long checkpoint(CubeJournal journal, byte[] squares)
+        throws IOException, InterruptedException {
+        protocole.showEntry();
+        try {
+            long first = journal.startLog();
+            readSquares(0, squares, 0, squares.length);
+            return first;
+        } finally {
+            protocole.showExit();
+        }
+    }
+
+    // Subscribe to the rotations done on the cube from now on. They are kept in
+    // a buffer of a given capacity until taken, see RotationFeed.
+    public RotationFeed subscribe(int capacity) {
+        RotationFeed feed = new RotationFeed(this, size, capacity);
+        synchronized (lock) {
+            RotationFeed[] more = Arrays.copyOf(feeds, feeds.length + 1);
+            more[feeds.length] = feed;
+            feeds = more;
+        }
+        return feed;
+    }
+
+    void unsubscribe(RotationFeed feed) {
+        synchronized (lock) {
+            RotationFeed[] fewer = new RotationFeed[feeds.length];
+            int n = 0;
+            for (RotationFeed f : feeds) {
+                if (f != feed) {
+                    fewer[n++] = f;
+                }
+            }
+            feeds = Arrays.copyOf(fewer, n);
+        }
+    }
 
-        default: throw new AssertionError("Invalid face!");
+    // Write the cube through to its storage's durable medium, if it has one
+    // (see CubeStorage.force()). Like 'show()' it waits for a moment between
+    // rotations so a consistent state is persisted.
+    public void persist() throws InterruptedException {
+        protocole.showEntry();
+        try {
+            faces.force();
+        } finally {
+            protocole.showExit();
         }
     }
 
+    private int oppositeFace(int f) {
+        return CubeGeometry.oppositeFace(f);
+    }
+
     // The true place where rotations take place, the critical section in
     // concurrent programming terminology -- here the threads actually can
     // access the cube.
-    private void criticalRotate(int ax, int layer, int origSide, int origLayer) {
+    private void criticalRotate(int ax, int layer, int origSide, int origLayer,
+                                int quarters) {
         // We're here, finally doin some rotatin'.
-        beforeRotation.accept(origSide, origLayer);
+        for (int q = 0; q < quarters; ++q) {
+            beforeRotation.accept(origSide, origLayer);
+        }
+
+        // Whatever happens, the layer must not stay odd for the snapshots.
+        long version = beginChange(layer);
+        try {
+            turnLayer(ax, layer, ax == origSide ? quarters : 4 - quarters);
+            journal(origSide, origLayer, quarters);
+        } finally {
+            endChange(layer, version);
+        }
+
+        for (int q = 0; q < quarters; ++q) {
+            for (RotationFeed feed : feeds) {
+                feed.publish(origSide, origLayer);
+            }
+
+            afterRotation.accept(origSide, origLayer);
+        }
+    }
+
+    // The critical section of 'apply()', with the cube all to ourselves.
+    private void criticalApply(CubePermutation permutation) {
+        int moves = permutation.moves();
+        for (int k = 0; k < moves; ++k) {
+            beforeRotation.accept(permutation.side(k), permutation.layer(k));
+        }
+
+        long[] versions = new long[size];
+        for (int layer = 0; layer < size; ++layer) {
+            versions[layer] = beginChange(layer);
+        }
+        try {
+            int faceSize = size * size;
+            permutation.apply(faces, square -> squareIndex(square / faceSize,
+                                                           square % faceSize / size,
+                                                           square % size));
+            for (int k = 0; k < moves; ++k) {
+                journal(permutation.side(k), permutation.layer(k), 1);
+            }
+        } finally {
+            for (int layer = 0; layer < size; ++layer) {
+                endChange(layer, versions[layer]);
+            }
+        }
+
+        for (int k = 0; k < moves; ++k) {
+            for (RotationFeed feed : feeds) {
+                feed.publish(permutation.side(k), permutation.layer(k));
+            }
+            afterRotation.accept(permutation.side(k), permutation.layer(k));
+        }
+    }
+
+    // The critical section of 'rotateRange()': n layers from the axis layer
+    // first on.
+    private void criticalRotateRange(int ax, int first, int n, int origSide,
+                                     int fromLayer, int toLayer) {
+        boolean once = rangesReportedOnce;
+        if (once) {
+            beforeRotation.accept(origSide, fromLayer);
+        } else {
+            for (int layer = fromLayer; layer <= toLayer; ++layer) {
+                beforeRotation.accept(origSide, layer);
+            }
+        }
+
+        long[] versions = new long[n];
+        for (int i = 0; i < n; ++i) {
+            versions[i] = beginChange(first + i);
+        }
+        try {
+            int quarters = ax == origSide ? 1 : 3;
+            if (first == 0) {
+                rotateFace(ax, quarters);
+            }
+            if (first + n == size) {
+                rotateFace(oppositeFace(ax), 4 - quarters);
+            }
+            rotateLayers(ax, first, n, quarters);
+            for (int layer = fromLayer; layer <= toLayer; ++layer) {
+                journal(origSide, layer, 1);
+            }
+        } finally {
+            for (int i = 0; i < n; ++i) {
+                endChange(first + i, versions[i]);
+            }
+        }
+
+        for (int layer = fromLayer; layer <= toLayer; ++layer) {
+            for (RotationFeed feed : feeds) {
+                feed.publish(origSide, layer);
+            }
+            if (!once) {
+                afterRotation.accept(origSide, layer);
+            }
+        }
+        if (once) {
+            afterRotation.accept(origSide, fromLayer);
+        }
+    }
 
-        boolean clockwise = ax == origSide;
+    // Turn a layer by a number (1, 2 or 3) of clockwise quarter turns as seen
+    // from the side ax.
+    private void turnLayer(int ax, int layer, int quarters) {
         // If this layer is a face layer then we also need to rotate the face.
         // Mind the reverted clockwiseness.
         if (layer == 0) {
-            rotateFace(ax, clockwise);
+            rotateFace(ax, quarters);
         } else if (layer == size - 1) {
-            rotateFace(oppositeFace(ax), !clockwise);
+            rotateFace(oppositeFace(ax), 4 - quarters);
         }
-        
-        switch (ax) {
 
-        case 0:
-            rotate0(layer, clockwise);
-            break;
+        rotateLayer(ax, layer, quarters);
+    }
+
+    // Let snapshot readers know that a layer is being changed. The fence keeps
+    // the writes that follow from overtaking the odd sequence number. Returns
+    // the number to be passed to endChange(int, long).
+    private long beginChange(int layer) {
+        long version = layerVersions.get(layer);
+        layerVersions.set(layer, version + 1);
+        VarHandle.releaseFence();
+        return version;
+    }
+
+    private void endChange(int layer, long version) {
+        layerVersions.setRelease(layer, version + 2);
+    }
+
+    // Index in the storage of the square in the ith row and jth column of face
+    // f as it is stored.
+    private int index(int f, int i, int j) {
+        return (f * size + i) * size + j;
+    }
+
+    // Index in the storage of the square in the ith row and jth column of face
+    // f as it looks, ie. with the orientation of the face taken into account.
+    private int squareIndex(int f, int i, int j) {
+        switch (faces.orientation(f)) {
+
+        case 0: return index(f, i, j);
+        case 1: return index(f, size - j - 1, i);
+        case 2: return index(f, size - i - 1, size - j - 1);
+        default: return index(f, j, size - i - 1);
+        }
+    }
+
+    // Turning a face only changes its orientation, its squares stay in place.
+    private void rotateFace(int which, int quarters) {
+        faces.setOrientation(which, (faces.orientation(which) + quarters) % 4);
+    }
+
+    // Physically turn a face so that its orientation becomes 0.
+    private void normalizeFace(int face) {
+        switch (faces.orientation(face)) {
+
         case 1:
-            rotate1(layer, clockwise);
+            turnFace(face, 1);
             break;
         case 2:
-            rotate2(layer, clockwise);
+            halfTurn(face);
+            break;
+        case 3:
+            turnFace(face, 3);
             break;
         }
-
-        afterRotation.accept(origSide, origLayer);
+        faces.setOrientation(face, 0);
     }
 
-    private void rotateFace(int which, boolean clockwise) {
-        if (clockwise) {
-            transpose(faces[which]);
-            reflect(faces[which]);
-        } else {
-            reflect(faces[which]);
-            transpose(faces[which]);
+    // Turn all faces physically back to orientation 0 (see CubeStorage), eg.
+    // before the storage is handed over to code unaware of orientations, or to
+    // make rows of faces contiguous again for the rotations. The outer layers
+    // of each axis are locked for that as if they were rotated, so the cube
+    // does not stop for other rotations.
+    public void normalize() throws InterruptedException {
+        if (size == 0) {
+            return;
+        }
+        int[] outer = { 0, size - 1 };
+        int locked = size == 1 ? 1 : 2;
+        for (int ax = 0; ax < 3; ++ax) {
+            protocole.rotateEntry(ax);
+            try {
+                acquireLayers(outer, locked);
+                try {
+                    long first = beginChange(0);
+                    long last = size == 1 ? first : beginChange(size - 1);
+                    try {
+                        normalizeFace(ax);
+                        normalizeFace(oppositeFace(ax));
+                    } finally {
+                        if (size > 1) {
+                            endChange(size - 1, last);
+                        }
+                        endChange(0, first);
+                    }
+                } finally {
+                    releaseLayers(outer, locked);
+                }
+            } finally {
+                protocole.rotateExit(ax);
+            }
         }
     }
 
-    public void transpose(int[][] matrix) {
-        int n = matrix.length;
-        for (int i = 0; i < n; i++) {
-            for (int j = i; j < n; j++) {
-                int tmp = matrix[j][i];
-                matrix[j][i] = matrix[i][j];
-                matrix[i][j] = tmp;
+    // The face kernels work row by row so that big faces can be split.
+    private int rowsPerChunk() {
+        return Math.max(1, FACE_CHUNK / size);
+    }
+
+    // Turn a face by 1 or 3 clockwise quarters in place, in a single pass: the
+    // squares go round in fours, one from every quarter of the face, starting
+    // with the top left quarter row by row. Arrays do it in tiles, see
+    // CubeKernels.
+    private void turnFace(int face, int quarters) {
+        int columns = (size + 1) / 2;
+        forChunks(size / 2, rowsPerChunk(), (from, to) -> {
+            if (squares != null) {
+                kernels.turnFace(squares, index(face, 0, 0), size, quarters, from, to);
+                return;
             }
-        }
+            for (int i = from; i < to; i++) {
+                for (int j = 0; j < columns; j++) {
+                    swap4(index(face, i, j), index(face, size - j - 1, i),
+                          index(face, size - i - 1, size - j - 1),
+                          index(face, j, size - i - 1), quarters);
+                }
+            }
+        });
     }
 
-    public void reflect(int[][] matrix) {
-        int n = matrix.length;
-        for (int i = 0; i < n; i++) {
-            for (int j = 0; j < n / 2; j++) {
-                int tmp = matrix[i][j];
-                matrix[i][j] = matrix[i][n - j - 1];
-                matrix[i][n - j - 1] = tmp;
+    // Row i swaps places with row size - i - 1, reversed.
+    private void halfTurn(int face) {
+        forChunks((size + 1) / 2, rowsPerChunk(), (from, to) -> {
+            for (int i = from; i < to; i++) {
+                int a = index(face, i, 0);
+                int b = index(face, size - i - 1, size - 1);
+                for (; a < b && a < index(face, i + 1, 0); ++a, --b) {
+                    swap(a, b);
+                }
             }
-        }
+        });
     }
 
-    // A quadruple swap of cubes' squares.
-    private void swap4(CubeSquare s0, CubeSquare s1, CubeSquare s2, CubeSquare s3,
-                       boolean clockwise) {
-        int[] tmp = {
-            faces[s0.getFace()][s0.getI()][s0.getJ()],
-            faces[s1.getFace()][s1.getI()][s1.getJ()],
-            faces[s2.getFace()][s2.getI()][s2.getJ()],
-            faces[s3.getFace()][s3.getI()][s3.getJ()]
-        };
+    private void swap(int a, int b) {
+        byte tmp = faces.get(a);
+        faces.set(a, faces.get(b));
+        faces.set(b, tmp);
+    }
 
-        if (clockwise) {
-            faces[s0.getFace()][s0.getI()][s0.getJ()] = tmp[1];
-            faces[s1.getFace()][s1.getI()][s1.getJ()] = tmp[2];
-            faces[s2.getFace()][s2.getI()][s2.getJ()] = tmp[3];
-            faces[s3.getFace()][s3.getI()][s3.getJ()] = tmp[0];
-        } else {
-            faces[s0.getFace()][s0.getI()][s0.getJ()] = tmp[3];
-            faces[s1.getFace()][s1.getI()][s1.getJ()] = tmp[0];
-            faces[s2.getFace()][s2.getI()][s2.getJ()] = tmp[1];
-            faces[s3.getFace()][s3.getI()][s3.getJ()] = tmp[2];
+    // A quadruple swap of cubes' squares given by their indices, turned by
+    // 1, 2 or 3 clockwise quarters. A half turn is just two swaps.
+    private void swap4(int s0, int s1, int s2, int s3, int quarters) {
+        byte tmp = faces.get(s0);
+        switch (quarters) {
+
+        case 1:
+            faces.set(s0, faces.get(s1));
+            faces.set(s1, faces.get(s2));
+            faces.set(s2, faces.get(s3));
+            faces.set(s3, tmp);
+            break;
+        case 2:
+            faces.set(s0, faces.get(s2));
+            faces.set(s2, tmp);
+            tmp = faces.get(s1);
+            faces.set(s1, faces.get(s3));
+            faces.set(s3, tmp);
+            break;
+        default:
+            faces.set(s0, faces.get(s3));
+            faces.set(s3, faces.get(s2));
+            faces.set(s2, faces.get(s1));
+            faces.set(s1, tmp);
         }
     }
 
-    // All functions from the rotateN (N in {0,1,2}) family rotate a given layer
-    // around the Nth axis. Clockwise or anticlockwise.
-    private void rotate0(int layer, boolean clockwise) {
+    // Rotate the squares from..to-1 of four strips of squares, each of them
+    // given by the index of its first square and the distance between
+    // consecutive squares.
+    private void swapStrips(int from, int to, int s0, int d0, int s1, int d1,
+                            int s2, int d2, int s3, int d3, int quarters) {
+        // Four rows of the array, all walked the same way, move as a block:
+        // walked backwards they are the same squares in the same quadruples.
+        if (squares != null && (d0 == 1 || d0 == -1) && d1 == d0 && d2 == d0 && d3 == d0) {
+            int first = d0 == 1 ? from : to - 1;
+            kernels.rotateRows(squares, s0 + first * d0, s1 + first * d0, s2 + first * d0,
+                               s3 + first * d0, to - from, quarters);
+            return;
+        }
 
-        for (int i = 0; i < size; ++i) {
-            swap4(new CubeSquare(1, layer, i), new CubeSquare(2, layer, i),
-                  new CubeSquare(3, layer, i), new CubeSquare(4, layer, i),
-                  clockwise);
+        s0 += from * d0;
+        s1 += from * d1;
+        s2 += from * d2;
+        s3 += from * d3;
+        for (int i = from; i < to; ++i) {
+            swap4(s0, s1, s2, s3, quarters);
+            s0 += d0;
+            s1 += d1;
+            s2 += d2;
+            s3 += d3;
         }
     }
 
-    private void rotate1(int layer, boolean clockwise) {
-        for (int i = 0; i < size; ++i) {
-            swap4(new CubeSquare(4, size - i - 1, size - layer - 1),
-                  new CubeSquare(5, i, layer), new CubeSquare(2, i, layer),
-                  new CubeSquare(0, i, layer),  clockwise);
+    // Rotate a given layer around a given axis by 1, 2 or 3 clockwise quarters.
+    // The strips of squares that move are described in CubeGeometry. Each of
+    // them walks a row or a column of the storage; rows are contiguous and
+    // columns are strided by size.
+    private void rotateLayer(int ax, int layer, int quarters) {
+        int s0 = stripStart(ax, layer, 0);
+        int d0 = stripStep(ax, layer, 0);
+        int s1 = stripStart(ax, layer, 1);
+        int d1 = stripStep(ax, layer, 1);
+        int s2 = stripStart(ax, layer, 2);
+        int d2 = stripStep(ax, layer, 2);
+        int s3 = stripStart(ax, layer, 3);
+        int d3 = stripStep(ax, layer, 3);
+
+        // Checked here so that the usual serial rotation allocates nothing.
+        ForkJoinPool pool = parallelPool();
+        if (pool == null) {
+            swapStrips(0, size, s0, d0, s1, d1, s2, d2, s3, d3, quarters);
+        } else {
+            pool.invoke(new ChunkTask((from, to) -> {
+                swapStrips(from, to, s0, d0, s1, d1, s2, d2, s3, d3, quarters);
+            }, 0, size, STRIP_CHUNK));
         }
     }
 
-    private void rotate2(int layer, boolean clockwise) {
-        for (int i = 0; i < size; ++i) {
-            swap4(new CubeSquare(0, size - layer - 1, i),
-                  new CubeSquare(1, size - i - 1, size - layer - 1),
-                  new CubeSquare(5, layer, size - i - 1), 
-                  new CubeSquare(3, i, layer),
-                  clockwise);
+    // Rotate n adjacent layers from the axis layer first on. The strips of
+    // neighbouring layers are neighbouring rows or columns of the storage, so
+    // the layers take turns in moving RANGE_BLOCK squares each: the lines of
+    // a column strip are then still in the cache for the next layer.
+    private void rotateLayers(int ax, int first, int n, int quarters) {
+        int[] starts = new int[4 * n];
+        int[] steps = new int[4 * n];
+        for (int l = 0; l < n; ++l) {
+            for (int k = 0; k < 4; ++k) {
+                starts[4 * l + k] = stripStart(ax, first + l, k);
+                steps[4 * l + k] = stripStep(ax, first + l, k);
+            }
         }
+
+        forChunks(size, STRIP_CHUNK, (from, to) -> {
+            for (int block = from; block < to; block += RANGE_BLOCK) {
+                int end = Math.min(to, block + RANGE_BLOCK);
+                for (int l = 0; l < 4 * n; l += 4) {
+                    swapStrips(block, end, starts[l], steps[l], starts[l + 1], steps[l + 1],
+                               starts[l + 2], steps[l + 2], starts[l + 3], steps[l + 3],
+                               quarters);
+                }
+            }
+        });
+    }
+
+    // Index of the ith square of strip k.
+    private int stripSquare(int ax, int layer, int k, int i) {
+        return squareIndex(CubeGeometry.stripFace(ax, k),
+                           CubeGeometry.stripRow(size, ax, layer, k, i),
+                           CubeGeometry.stripColumn(size, ax, layer, k, i));
+    }
+
+    // Index of the first square of strip k.
+    private int stripStart(int ax, int layer, int k) {
+        return stripSquare(ax, layer, k, 0);
+    }
+
+    // Distance between consecutive squares of strip k. Wherever the orientation
+    // of its face puts it, a strip is a row or a column of the storage.
+    private int stripStep(int ax, int layer, int k) {
+        return stripSquare(ax, layer, k, 1) - stripSquare(ax, layer, k, 0);
     }
 
     // The place where actual showing of the cube takes place.
     public String criticalShow() throws InterruptedException {
         beforeShowing.run();
-        StringBuilder sb = new StringBuilder();
-        for (int f = 0; f < 6; ++f) {
-            for (int i = 0; i < size; ++i) {
-                for (int j = 0; j < size; ++j) {
-                    sb.append(faces[f][i][j]);
-                }
-            }
-        }
+        byte[] digits = new byte[6 * size * size];
+        readDigits(0, digits, 0, digits.length);
         afterShowing.run();
-        return sb.toString();
+        return new String(digits, StandardCharsets.US_ASCII);
+    }
+
+    // Build a cube from its state written by 'encode()' (or CubeCodec),
+    // synchronised by a SemaphoreProtocole.
+    public static Cube decode(InputStream in, BiConsumer<Integer, Integer> beforeRotation,
+                              BiConsumer<Integer, Integer> afterRotation,
+                              Runnable beforeShowing, Runnable afterShowing)
+        throws IOException {
+        return new Cube(CubeCodec.decode(in), beforeRotation, afterRotation,
+                        beforeShowing, afterShowing);
     }
 
     // Cube's constructor.
     public Cube(int size, BiConsumer<Integer, Integer> beforeRotation,
                 BiConsumer<Integer, Integer> afterRotation,
                 Runnable beforeShowing, Runnable afterShowing) {
+        this(new ArrayCubeStorage(size), beforeRotation, afterRotation,
+             beforeShowing, afterShowing);
+    }
 
-        this.size = size;
+    // Build a cube on top of a given storage. The cube is as big as the storage
+    // and starts in whatever state the storage is in.
+    public Cube(CubeStorage storage, BiConsumer<Integer, Integer> beforeRotation,
+                BiConsumer<Integer, Integer> afterRotation,
+                Runnable beforeShowing, Runnable afterShowing) {
+        this(storage, new SemaphoreProtocole(), beforeRotation, afterRotation,
+             beforeShowing, afterShowing);
+    }
+
+    // Build a cube on top of a given storage, synchronised by a given
+    // protocole.
+    public Cube(CubeStorage storage, CubeProtocole protocole,
+                BiConsumer<Integer, Integer> beforeRotation,
+                BiConsumer<Integer, Integer> afterRotation,
+                Runnable beforeShowing, Runnable afterShowing) {
+        this(storage, protocole, new SemaphoreLayerLocks(storage.size()), beforeRotation,
+             afterRotation, beforeShowing, afterShowing);
+    }
+
+    // Build a cube on top of a given storage, synchronised by a given
+    // protocole, with layers locked by given locks.
+    public Cube(CubeStorage storage, CubeProtocole protocole, LayerLocks layerLocks,
+                BiConsumer<Integer, Integer> beforeRotation,
+                BiConsumer<Integer, Integer> afterRotation,
+                Runnable beforeShowing, Runnable afterShowing) {
+
+        this.size = storage.size();
+        this.faces = storage;
+        this.squares = storage instanceof ArrayCubeStorage
+            ? ((ArrayCubeStorage) storage).squares() : null;
+        this.protocole = protocole;
         this.beforeRotation = beforeRotation;
         this.afterRotation = afterRotation;
         this.beforeShowing = beforeShowing;
         this.afterShowing = afterShowing;
-        this.layerMutices = new Semaphore[size];
-
-        for (int i = 0; i < size; ++i) {
-            layerMutices[i] = new Semaphore(1, true);
-        }
-
-        faces = new int[6][][];
-        for (int f = 0; f < 6; ++f) {
-            faces[f] = new int[size][size];
-            for (int i = 0; i < size; ++i) {
-                for (int j = 0; j < size; j++) {
-                    faces[f][i][j] = f;
-                }
-            }
-        }
+        this.layerLocks = layerLocks;
+        this.instruments = protocole instanceof InstrumentedProtocole
+            ? (InstrumentedProtocole) protocole : null;
+        this.layerVersions = new AtomicLongArray(size);
     }
 }
@@ -0,0 +1,408 @@
+package concurrentcube;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Arrays;
+
+// A compact binary format of the state of a cube, for storage and network.
+//
+// The data starts with a header (magic number, format version and the size of
+// the cube) followed by the six faces as they look, each on its own and
+// starting with the byte of its encoding:
+//   UNIFORM: one byte with the colour of all squares of the face,
+//   PACKED:  the squares row after row, 3 bits each, the first square in the
+//            lowest bits of the first byte, padded to a whole byte,
+//   RUNS:    a varint (7 bits a byte, lowest first) with the number of bytes
+//            of the runs that follow: runs of squares of one colour, row
+//            after row, each a varint of (length - 1) * 8 + colour.
+// A packed face takes 3/8 of a byte per square. Compression picks for every
+// face the shortest of the three, so faces of near solved cubes take a few
+// bytes, while with compression off all faces are packed, in a single pass.
+//
+// Both directions stream in chunks: neither keeps more than a chunk of squares
+// and of bytes, whatever the size of the cube. The decoder knows the length of
+// every part before it reads it and never reads past the cube, so a stream
+// (eg. of a socket) may carry other data after it.
+public final class CubeCodec {
+    private static final int MAGIC = 0x43554243; // "CUBC"
+    private static final int VERSION = 2;
+
+    private static final int UNIFORM = 0;
+    private static final int PACKED = 1;
+    private static final int RUNS = 2;
+
+    private static final int CHUNK = 1 << 16;
+
+    private CubeCodec() {
+    }
+
+    // Where the encoder takes the squares from: length squares starting from
+    // a given index, as the cube looks, copied into dst at offset.
+    interface Squares {
+        void read(int index, byte[] dst, int offset, int length);
+    }
+
+    // Write a snapshot of a cube. Unlike 'Cube.encode()', this does not hold
+    // up anybody.
+    public static void encode(CubeSnapshot snapshot, OutputStream out, boolean compress)
+        throws IOException {
+        encode(snapshot.size(), snapshot::read, out, compress);
+    }
+
+    static void encode(int size, Squares squares, OutputStream out, boolean compress)
+        throws IOException {
+        if (size < 1) {
+            throw new IllegalArgumentException("A cube of size " + size
+                                               + " cannot be encoded!");
+        }
+        Output output = new Output(out);
+        output.writeInt(MAGIC);
+        output.write(VERSION);
+        output.writeInt(size);
+
+        byte[] chunk = new byte[Math.min(CHUNK, size * size)];
+        for (int f = 0; f < 6; ++f) {
+            int from = f * size * size;
+            int to = from + size * size;
+            if (!compress) {
+                output.write(PACKED);
+                writePacked(squares, from, to, chunk, output);
+                continue;
+            }
+
+            // The first pass measures the runs, giving up once they are no
+            // shorter than the packed face.
+            long packedLength = (3L * size * size + 7) / 8;
+            long runs = 0;
+            long runsLength = 0;
+            int colour = -1;
+            long length = 0;
+            for (int index = from; index < to && runsLength < packedLength;
+                 index += chunk.length) {
+                int n = Math.min(chunk.length, to - index);
+                squares.read(index, chunk, 0, n);
+                for (int k = 0; k < n; ++k) {
+                    if (chunk[k] == colour) {
+                        ++length;
+                    } else {
+                        if (colour != -1) {
+                            ++runs;
+                            runsLength += varintLength((length - 1) * 8 + colour);
+                        }
+                        colour = chunk[k];
+                        length = 1;
+                    }
+                }
+            }
+            runsLength += varintLength((length - 1) * 8 + colour);
+
+            if (runs == 0 && length == size * size) {
+                output.write(UNIFORM);
+                output.write(colour);
+            } else if (runsLength + varintLength(runsLength) < packedLength) {
+                output.write(RUNS);
+                output.writeVarint(runsLength);
+                writeRuns(squares, from, to, chunk, output);
+            } else {
+                output.write(PACKED);
+                writePacked(squares, from, to, chunk, output);
+            }
+        }
+        output.flush();
+    }
+
+    private static int varintLength(long value) {
+        int n = 1;
+        while (value >= 0x80) {
+            value >>>= 7;
+            ++n;
+        }
+        return n;
+    }
+
+    private static void writePacked(Squares squares, int from, int to, byte[] chunk,
+                                    Output output) throws IOException {
+        int bits = 0;
+        int count = 0;
+        for (int index = from; index < to; index += chunk.length) {
+            int n = Math.min(chunk.length, to - index);
+            squares.read(index, chunk, 0, n);
+            for (int k = 0; k < n; ++k) {
+                bits |= chunk[k] << count;
+                count += 3;
+                if (count >= 8) {
+                    output.write(bits);
+                    bits >>>= 8;
+                    count -= 8;
+                }
+            }
+        }
+        if (count > 0) {
+            output.write(bits);
+        }
+    }
+
+    private static void writeRuns(Squares squares, int from, int to, byte[] chunk,
+                                  Output output) throws IOException {
+        int colour = -1;
+        long length = 0;
+        for (int index = from; index < to; index += chunk.length) {
+            int n = Math.min(chunk.length, to - index);
+            squares.read(index, chunk, 0, n);
+            for (int k = 0; k < n; ++k) {
+                if (chunk[k] == colour) {
+                    ++length;
+                } else {
+                    if (colour != -1) {
+                        output.writeVarint((length - 1) * 8 + colour);
+                    }
+                    colour = chunk[k];
+                    length = 1;
+                }
+            }
+        }
+        output.writeVarint((length - 1) * 8 + colour);
+    }
+
+    // Read a cube into a fresh array storage, to build a Cube on. Only the
+    // bytes of the cube are read from the stream.
+    public static CubeStorage decode(InputStream in) throws IOException {
+        Input input = new Input(in);
+        CubeStorage storage = new ArrayCubeStorage(readHeader(input));
+        decodeFaces(input, storage);
+        return storage;
+    }
+
+    // Read a cube into a given storage, eg. a MappedCubeStorage for a cube
+    // too big for the heap. The storage must be of the encoded size and
+    // must not be used by any cube meanwhile.
+    public static void decode(InputStream in, CubeStorage storage) throws IOException {
+        Input input = new Input(in);
+        if (readHeader(input) != storage.size()) {
+            throw new IllegalArgumentException("The storage is not of the cube's size!");
+        }
+        decodeFaces(input, storage);
+    }
+
+    private static int readHeader(Input input) throws IOException {
+        input.expect(9);
+        if (input.readInt() != MAGIC || input.read() != VERSION) {
+            throw new IOException("Not an encoded cube!");
+        }
+        int size = input.readInt();
+        if (size < 1 || size > CubeStorage.MAX_SIZE) {
+            throw new IOException("Invalid cube size: " + size);
+        }
+        return size;
+    }
+
+    private static void decodeFaces(Input input, CubeStorage storage) throws IOException {
+        int size = storage.size();
+        byte[] chunk = new byte[Math.min(CHUNK, size * size)];
+        for (int f = 0; f < 6; ++f) {
+            storage.setOrientation(f, 0);
+            int from = f * size * size;
+            int to = from + size * size;
+            input.expect(1);
+            switch (input.read()) {
+
+            case UNIFORM:
+                input.expect(1);
+                readUniform(input, storage, from, to, chunk);
+                break;
+            case PACKED:
+                input.expect((3L * size * size + 7) / 8);
+                readPacked(input, storage, from, to, chunk);
+                break;
+            case RUNS:
+                long runs = input.readLength();
+                if (runs < 1 || runs >= (3L * size * size + 7) / 8) {
+                    throw new IOException("Invalid length of the runs of face " + f + "!");
+                }
+                input.expect(runs);
+                readRuns(input, storage, from, to, chunk);
+                if (!input.exhausted()) {
+                    throw new IOException("The runs of face " + f + " are too long!");
+                }
+                break;
+
+            default: throw new IOException("Invalid encoding of face " + f + "!");
+            }
+        }
+    }
+
+    private static byte colour(int colour) throws IOException {
+        if (colour > 5) {
+            throw new IOException("Invalid colour: " + colour);
+        }
+        return (byte) colour;
+    }
+
+    private static void readUniform(Input input, CubeStorage storage, int from, int to,
+                                    byte[] chunk) throws IOException {
+        byte colour = colour(input.read());
+        Arrays.fill(chunk, colour);
+        for (int index = from; index < to; index += chunk.length) {
+            storage.write(index, chunk, 0, Math.min(chunk.length, to - index));
+        }
+    }
+
+    private static void readPacked(Input input, CubeStorage storage, int from, int to,
+                                   byte[] chunk) throws IOException {
+        int bits = 0;
+        int count = 0;
+        for (int index = from; index < to; index += chunk.length) {
+            int n = Math.min(chunk.length, to - index);
+            for (int k = 0; k < n; ++k) {
+                if (count < 3) {
+                    bits |= input.read() << count;
+                    count += 8;
+                }
+                chunk[k] = colour(bits & 7);
+                bits >>>= 3;
+                count -= 3;
+            }
+            storage.write(index, chunk, 0, n);
+        }
+    }
+
+    private static void readRuns(Input input, CubeStorage storage, int from, int to,
+                                 byte[] chunk) throws IOException {
+        int k = 0;
+        int index = from;
+        while (index + k < to) {
+            long run = input.readVarint();
+            byte colour = colour((int) (run & 7));
+            long length = (run >>> 3) + 1;
+            if (length > to - index - k) {
+                throw new IOException("A run goes past the end of the face!");
+            }
+            for (; length > 0; --length) {
+                chunk[k++] = colour;
+                if (k == chunk.length) {
+                    storage.write(index, chunk, 0, k);
+                    index += k;
+                    k = 0;
+                }
+            }
+        }
+        storage.write(index, chunk, 0, k);
+    }
+
+    // Buffered writing of bytes, ints and varints to a stream.
+    private static final class Output {
+        private final OutputStream out;
+        private final byte[] buffer = new byte[CHUNK];
+        private int position = 0;
+
+        Output(OutputStream out) {
+            this.out = out;
+        }
+
+        void write(int b) throws IOException {
+            if (position == buffer.length) {
+                out.write(buffer, 0, position);
+                position = 0;
+            }
+            buffer[position++] = (byte) b;
+        }
+
+        void writeInt(int value) throws IOException {
+            for (int shift = 24; shift >= 0; shift -= 8) {
+                write(value >>> shift);
+            }
+        }
+
+        void writeVarint(long value) throws IOException {
+            while (value >= 0x80) {
+                write((int) value | 0x80);
+                value >>>= 7;
+            }
+            write((int) value);
+        }
+
+        void flush() throws IOException {
+            out.write(buffer, 0, position);
+            position = 0;
+            out.flush();
+        }
+    }
+
+    // Buffered reading of bytes, ints and varints from a stream. The decoder
+    // says how many more bytes it is going to need, and no more than that is
+    // read from the stream.
+    private static final class Input {
+        private final InputStream in;
+        private final byte[] buffer = new byte[CHUNK];
+        private int position = 0;
+        private int limit = 0;
+
+        // Bytes expected but not read from the stream yet.
+        private long expected = 0;
+
+        Input(InputStream in) {
+            this.in = in;
+        }
+
+        void expect(long n) {
+            expected += n;
+        }
+
+        // Whether all of the expected bytes have been read.
+        boolean exhausted() {
+            return position == limit && expected == 0;
+        }
+
+        int read() throws IOException {
+            if (position == limit) {
+                if (expected == 0) {
+                    throw new IOException("The encoded cube is corrupt!");
+                }
+                limit = in.read(buffer, 0, (int) Math.min(buffer.length, expected));
+                position = 0;
+                if (limit <= 0) {
+                    limit = 0;
+                    throw new EOFException("The encoded cube ends too early!");
+                }
+                expected -= limit;
+            }
+            return buffer[position++] & 0xFF;
+        }
+
+        // A varint whose length is not known beforehand, read a byte at a time.
+        long readLength() throws IOException {
+            long value = 0;
+            for (int shift = 0; shift < 64; shift += 7) {
+                expect(1);
+                int b = read();
+                value |= (long) (b & 0x7F) << shift;
+                if (b < 0x80) {
+                    return value;
+                }
+            }
+            throw new IOException("Invalid varint!");
+        }
+
+        int readInt() throws IOException {
+            int value = 0;
+            for (int i = 0; i < 4; ++i) {
+                value = (value << 8) | read();
+            }
+            return value;
+        }
+
+        long readVarint() throws IOException {
+            long value = 0;
+            for (int shift = 0; shift < 64; shift += 7) {
+                int b = read();
+                value |= (long) (b & 0x7F) << shift;
+                if (b < 0x80) {
+                    return value;
+                }
+            }
+            throw new IOException("Invalid varint!");
+        }
+    }
+}
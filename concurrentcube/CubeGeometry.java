@@ -0,0 +1,83 @@
+package concurrentcube;
+
+// Which squares a rotation moves.
+// A rotation of a layer around an axis moves four strips of squares, one on
+// each of the faces around the axis. The ith squares of the strips make up
+// the ith quadruple swap: on a clockwise turn every square gets the colour of
+// its counterpart on the next strip (and strip 3 gets the colours of strip 0).
+// The ith squares of the strips are (face, row, column):
+//   axis 0: (1, layer, i), (2, layer, i), (3, layer, i), (4, layer, i)
+//   axis 1: (4, size - i - 1, size - layer - 1), (5, i, layer),
+//           (2, i, layer), (0, i, layer)
+//   axis 2: (0, size - layer - 1, i), (1, size - i - 1, size - layer - 1),
+//           (5, layer, size - i - 1), (3, i, layer)
+// On top of that, turning layer 0 turns the face of the axis itself and
+// turning the last layer turns the opposite face.
+final class CubeGeometry {
+    private static final int[][] STRIP_FACES = {
+        { 1, 2, 3, 4 }, { 4, 5, 2, 0 }, { 0, 1, 5, 3 }
+    };
+
+    private CubeGeometry() {
+    }
+
+    static int oppositeFace(int f) {
+        switch (f) {
+
+        case 0: return 5;
+        case 1: return 3;
+        case 2: return 4;
+        case 3: return 1;
+        case 4: return 2;
+        case 5: return 0;
+
+        default: throw new AssertionError("Invalid face!");
+        }
+    }
+
+    // The axis (0 or 1 or 2) a side rotates around.
+    static int axis(int side) {
+        return side < 3 ? side : oppositeFace(side);
+    }
+
+    // Reëvaluate the layer counted from a side with respect to its axis.
+    static int axisLayer(int size, int side, int layer) {
+        return side < 3 ? layer : size - layer - 1;
+    }
+
+    static int stripFace(int ax, int k) {
+        return STRIP_FACES[ax][k];
+    }
+
+    // Row of the ith square of strip k.
+    static int stripRow(int size, int ax, int layer, int k, int i) {
+        switch (ax * 4 + k) {
+
+        case 0: case 1: case 2: case 3: return layer;
+        case 4: return size - i - 1;
+        case 5: case 6: case 7: return i;
+        case 8: return size - layer - 1;
+        case 9: return size - i - 1;
+        case 10: return layer;
+        case 11: return i;
+
+        default: throw new AssertionError("Invalid strip!");
+        }
+    }
+
+    // Column of the ith square of strip k.
+    static int stripColumn(int size, int ax, int layer, int k, int i) {
+        switch (ax * 4 + k) {
+
+        case 0: case 1: case 2: case 3: return i;
+        case 4: return size - layer - 1;
+        case 5: case 6: case 7: return layer;
+        case 8: return i;
+        case 9: return size - layer - 1;
+        case 10: return size - i - 1;
+        case 11: return layer;
+
+        default: throw new AssertionError("Invalid strip!");
+        }
+    }
+}
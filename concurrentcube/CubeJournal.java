@@ -0,0 +1,455 @@
+package concurrentcube;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+import java.util.concurrent.locks.ReentrantLock;
+
+// A write-ahead log of the moves of a cube kept in a directory, so that the
+// cube survives restarts of the JVM.
+//
+// Every move is written by the rotating thread, from within the cube, as one
+// int (side, layer and quarter turns) into an in-memory buffer. A flusher
+// thread writes the buffer out every few milliseconds, all moves of that time
+// in one write (a group commit), and forces them to the disk if asked to. A
+// rotating thread finding the buffer full writes it out itself. A move is thus
+// durable a flush interval after it has been done at the latest.
+//
+// From time to time (every so many moves, or on 'checkpoint()') the whole cube
+// is written to the checkpoint file. Moves go to numbered log files: taking
+// a checkpoint starts a new one and the checkpoint remembers its number, so
+// the cube is always the latest checkpoint with the logs from its number on
+// replayed, and older logs can be deleted. A record torn by a crash at the end
+// of a log is ignored.
+public final class CubeJournal implements AutoCloseable {
+    private static final int MAGIC = 0x4355424A; // "CUBJ"
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = 16;
+
+    private static final String CHECKPOINT = "checkpoint";
+    private static final String LOG = "log.";
+
+    private static final int BUFFER_SIZE = 1 << 16;
+
+    private final Path directory;
+    private final int size;
+    private final long flushNanos;
+    private final boolean fsync;
+    private final long checkpointMoves;
+
+    private Cube cube;
+    private Thread flusher;
+
+    // Moves not written out yet and the spare buffer the flusher writes from.
+    // The rotating threads only ever take the lock, so it is held for a few
+    // instructions.
+    private final ReentrantLock bufferLock = new ReentrantLock();
+    private ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+    private ByteBuffer spare = ByteBuffer.allocate(BUFFER_SIZE);
+    private long moves = 0;
+
+    // Held for the whole of a checkpoint, from starting the new log until the
+    // old ones are deleted. The checkpoint file is written under it only.
+    private final ReentrantLock checkpointLock = new ReentrantLock();
+
+    // Writing to the logs. Everything below is guarded by the lock.
+    private final ReentrantLock ioLock = new ReentrantLock();
+    private FileChannel log;
+    private long generation;
+    private long checkpointed = 0;
+    private IOException failure;
+    private boolean closed = false;
+
+    // Moves are forced to the disk unless fsync is false, checkpoints are taken
+    // every checkpointMoves moves unless it is 0.
+    private CubeJournal(Path directory, int size, long flushMillis, boolean fsync,
+                        long checkpointMoves) {
+        this.directory = directory;
+        this.size = size;
+        this.flushNanos = TimeUnit.MILLISECONDS.toNanos(flushMillis);
+        this.fsync = fsync;
+        this.checkpointMoves = checkpointMoves;
+    }
+
+    // A journal in a directory, made if it does not exist, flushed every 10ms
+    // and checkpointed every million moves.
+    public static CubeJournal open(Path directory, int size) throws IOException {
+        return open(directory, size, 10, true, 1000000);
+    }
+
+    public static CubeJournal open(Path directory, int size, long flushMillis,
+                                   boolean fsync, long checkpointMoves)
+        throws IOException {
+        if (size < 1 || size > CubeStorage.MAX_SIZE) {
+            throw new IllegalArgumentException("Invalid cube size: " + size);
+        }
+        if (flushMillis < 1 || checkpointMoves < 0) {
+            throw new IllegalArgumentException("Invalid journal parameters!");
+        }
+        Files.createDirectories(directory);
+        return new CubeJournal(directory, size, flushMillis, fsync, checkpointMoves);
+    }
+
+    // Bring a cube that nobody uses yet to the state written in the journal:
+    // the checkpoint is painted on it and the logged moves are done again,
+    // without callbacks. With no checkpoint, the logs are replayed on the cube
+    // as it is, which should be the one the journal started with. The journal
+    // then starts a new log and writes down the moves of the cube.
+    public void recover(Cube cube) throws IOException {
+        if (cube.size() != size) {
+            throw new IllegalArgumentException("The cube is not of the journal's size!");
+        }
+
+        ioLock.lock();
+        try {
+            if (this.cube != null || closed) {
+                throw new IllegalStateException("The journal is in use already!");
+            }
+
+            long first = 0;
+            Path checkpoint = directory.resolve(CHECKPOINT);
+            if (Files.exists(checkpoint)) {
+                first = readCheckpoint(checkpoint, cube);
+            }
+
+            List<Long> logs = logs();
+            generation = first;
+            for (long g : logs) {
+                if (g >= first) {
+                    replayLog(g, cube);
+                }
+                generation = Math.max(generation, g + 1);
+            }
+
+            openLog();
+            deleteLogsBefore(first);
+            this.cube = cube;
+            cube.attach(this);
+        } finally {
+            ioLock.unlock();
+        }
+
+        flusher = new Thread(this::flushLoop, "cube-journal");
+        flusher.setDaemon(true);
+        flusher.start();
+    }
+
+    // Called by the cube from within its critical sections.
+    void append(int side, int layer, int quarters) {
+        int record = (layer << 5) | (quarters << 3) | side;
+        for (;;) {
+            bufferLock.lock();
+            try {
+                if (buffer.remaining() >= 4) {
+                    buffer.putInt(record);
+                    ++moves;
+                    return;
+                }
+            } finally {
+                bufferLock.unlock();
+            }
+            write();
+        }
+    }
+
+    // Write out the buffered moves and force them to the disk (even if the
+    // journal does not do it on every flush). Throws the error that made the
+    // journal fail, if any.
+    public void flush() throws IOException {
+        ioLock.lock();
+        try {
+            write();
+            if (failure == null && log != null) {
+                try {
+                    log.force(false);
+                } catch (IOException e) {
+                    failure = e;
+                }
+            }
+            if (failure != null) {
+                throw failure;
+            }
+        } finally {
+            ioLock.unlock();
+        }
+    }
+
+    // Write the whole cube to the checkpoint file. Rotations wait for as long
+    // as it takes to copy the squares, like for a 'show()'. The file is
+    // written afterwards, with the moves going on. Checkpoints are taken one
+    // at a time, so that an older one never replaces a newer one.
+    public void checkpoint() throws IOException, InterruptedException {
+        checkpointLock.lockInterruptibly();
+        try {
+            Cube c;
+            ioLock.lock();
+            try {
+                c = cube;
+                if (c == null || closed) {
+                    throw new IllegalStateException("The journal has no cube!");
+                }
+            } finally {
+                ioLock.unlock();
+            }
+
+            // The squares include everything up to the log just started.
+            byte[] squares = new byte[6 * size * size];
+            long first = c.checkpoint(this, squares);
+            writeCheckpoint(first, squares);
+            deleteLogsBefore(first);
+        } finally {
+            checkpointLock.unlock();
+        }
+    }
+
+    // Stop writing down the cube's moves, write out the ones buffered and
+    // close the files. Rotations should be over by then, moves of the ones
+    // still going on may be lost.
+    @Override
+    public void close() throws IOException {
+        Thread f;
+        ioLock.lock();
+        try {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            if (cube != null) {
+                cube.attach(null);
+            }
+            f = flusher;
+        } finally {
+            ioLock.unlock();
+        }
+
+        if (f != null) {
+            LockSupport.unpark(f);
+            boolean interrupted = false;
+            while (f.isAlive()) {
+                try {
+                    f.join();
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                }
+            }
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        ioLock.lock();
+        try {
+            flush();
+        } finally {
+            if (log != null) {
+                log.close();
+            }
+            ioLock.unlock();
+        }
+    }
+
+    private void flushLoop() {
+        for (;;) {
+            LockSupport.parkNanos(flushNanos);
+            long done;
+            ioLock.lock();
+            try {
+                if (closed) {
+                    return;
+                }
+                write();
+                if (fsync && failure == null) {
+                    try {
+                        log.force(false);
+                    } catch (IOException e) {
+                        failure = e;
+                    }
+                }
+                done = moves();
+                if (checkpointMoves == 0 || done - checkpointed < checkpointMoves) {
+                    continue;
+                }
+                checkpointed = done;
+            } finally {
+                ioLock.unlock();
+            }
+
+            try {
+                checkpoint();
+            } catch (IOException e) {
+                ioLock.lock();
+                failure = e;
+                ioLock.unlock();
+            } catch (InterruptedException | IllegalStateException e) {
+                return;
+            }
+        }
+    }
+
+    private long moves() {
+        bufferLock.lock();
+        try {
+            return moves;
+        } finally {
+            bufferLock.unlock();
+        }
+    }
+
+    // Write the buffered moves to the current log. Once a write has failed the
+    // moves are dropped, the failure is reported by 'flush()'.
+    private void write() {
+        ioLock.lock();
+        try {
+            bufferLock.lock();
+            try {
+                ByteBuffer full = buffer;
+                buffer = spare;
+                spare = full;
+            } finally {
+                bufferLock.unlock();
+            }
+
+            spare.flip();
+            if (failure == null && log != null) {
+                try {
+                    while (spare.hasRemaining()) {
+                        log.write(spare);
+                    }
+                } catch (IOException e) {
+                    failure = e;
+                }
+            }
+            spare.clear();
+        } finally {
+            ioLock.unlock();
+        }
+    }
+
+    // Called by the cube with no rotation inside: the moves so far go to the
+    // current log, the ones to come to a new one. Returns the number of the
+    // new log.
+    long startLog() throws IOException {
+        ioLock.lock();
+        try {
+            write();
+            if (failure != null) {
+                throw failure;
+            }
+            log.force(false);
+            log.close();
+            openLog();
+            return generation - 1;
+        } finally {
+            ioLock.unlock();
+        }
+    }
+
+    private Path logPath(long g) {
+        return directory.resolve(LOG + g);
+    }
+
+    private void openLog() throws IOException {
+        log = FileChannel.open(logPath(generation), StandardOpenOption.CREATE_NEW,
+                               StandardOpenOption.WRITE);
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+        header.putInt(MAGIC).putInt(VERSION).putInt(size).putInt(0).flip();
+        while (header.hasRemaining()) {
+            log.write(header);
+        }
+        ++generation;
+    }
+
+    // Numbers of the logs in the directory, in ascending order.
+    private List<Long> logs() throws IOException {
+        List<Long> logs = new ArrayList<>();
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory, LOG + "*")) {
+            for (Path file : files) {
+                try {
+                    logs.add(Long.parseLong(file.getFileName().toString()
+                                            .substring(LOG.length())));
+                } catch (NumberFormatException e) {
+                }
+            }
+        }
+        Collections.sort(logs);
+        return logs;
+    }
+
+    private void deleteLogsBefore(long first) throws IOException {
+        for (long g : logs()) {
+            if (g < first) {
+                Files.deleteIfExists(logPath(g));
+            }
+        }
+    }
+
+    private void checkHeader(ByteBuffer header, Path file) throws IOException {
+        if (header.getInt(0) != MAGIC || header.getInt(4) != VERSION
+            || header.getInt(8) != size) {
+            throw new IOException("Not a journal of this cube: " + file);
+        }
+    }
+
+    private void replayLog(long g, Cube cube) throws IOException {
+        ByteBuffer data = ByteBuffer.wrap(Files.readAllBytes(logPath(g)));
+        if (data.limit() < HEADER_SIZE) {
+            // Torn before its header was written, so it holds no moves.
+            return;
+        }
+        checkHeader(data, logPath(g));
+
+        data.position(HEADER_SIZE);
+        while (data.remaining() >= 4) {
+            int record = data.getInt();
+            cube.replay(record & 7, record >>> 5, (record >>> 3) & 3);
+        }
+    }
+
+    // Paint the checkpoint on the cube, returns the number of the first log
+    // that is not included in it.
+    private long readCheckpoint(Path file, Cube cube) throws IOException {
+        ByteBuffer data = ByteBuffer.wrap(Files.readAllBytes(file));
+        if (data.limit() != HEADER_SIZE + 6 * size * size) {
+            throw new IOException("Not a checkpoint of this cube: " + file);
+        }
+        checkHeader(data, file);
+
+        byte[] squares = new byte[6 * size * size];
+        data.position(HEADER_SIZE);
+        data.get(squares);
+        cube.restore(squares);
+        return data.getInt(12) & 0xFFFFFFFFL;
+    }
+
+    // The checkpoint is written to a temporary file first and moved over the
+    // old one, so a crash leaves either of them whole.
+    private void writeCheckpoint(long first, byte[] squares) throws IOException {
+        Path tmp = directory.resolve(CHECKPOINT + ".tmp");
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+        header.putInt(MAGIC).putInt(VERSION).putInt(size).putInt((int) first).flip();
+        try (FileChannel channel = FileChannel.open(tmp, StandardOpenOption.CREATE,
+                                                    StandardOpenOption.TRUNCATE_EXISTING,
+                                                    StandardOpenOption.WRITE)) {
+            ByteBuffer data = ByteBuffer.wrap(squares);
+            while (header.hasRemaining()) {
+                channel.write(header);
+            }
+            while (data.hasRemaining()) {
+                channel.write(data);
+            }
+            channel.force(true);
+        }
+        Files.move(tmp, directory.resolve(CHECKPOINT), StandardCopyOption.REPLACE_EXISTING,
+                   StandardCopyOption.ATOMIC_MOVE);
+    }
+}
@@ -0,0 +1,107 @@
+package concurrentcube;
+
+// The tight loops of a cube kept in an array (see ArrayCubeStorage): moving
+// rows of squares around a layer, turning a face and turning squares into
+// digits. This class does them with plain loops; VectorKernels, kept apart in
+// vector/ since it needs the jdk.incubator.vector module, does them with
+// SIMD instructions. Which one the cubes use is picked once, when the class
+// is loaded: the vector kernels if they have been compiled in and the module
+// is there (java --add-modules jdk.incubator.vector), unless the system
+// property concurrentcube.kernels is "scalar".
+class CubeKernels {
+    static final CubeKernels SELECTED = select();
+
+    // Side of the square tiles in which faces are turned: the four tiles one
+    // of them moves fit in the L1 cache together.
+    static final int TILE = 64;
+
+    private static CubeKernels select() {
+        if (!"scalar".equals(System.getProperty("concurrentcube.kernels"))) {
+            try {
+                return (CubeKernels) Class.forName("concurrentcube.VectorKernels")
+                    .getDeclaredConstructor().newInstance();
+            } catch (ReflectiveOperationException | LinkageError e) {
+                // Not compiled in or no module, the plain loops it is.
+            }
+        }
+        return new CubeKernels();
+    }
+
+    // Name of the kernels, for benchmarks and such.
+    String name() {
+        return "scalar";
+    }
+
+    // Rotate n squares of four rows starting at s0, s1, s2 and s3 by 1, 2 or
+    // 3 quarters: on a quarter every row gets the squares of the next one (and
+    // the row at s3 those of the row at s0). The rows must not overlap.
+    void rotateRows(byte[] a, int s0, int s1, int s2, int s3, int n, int quarters) {
+        for (int i = 0; i < n; ++i) {
+            byte tmp = a[s0 + i];
+            switch (quarters) {
+
+            case 1:
+                a[s0 + i] = a[s1 + i];
+                a[s1 + i] = a[s2 + i];
+                a[s2 + i] = a[s3 + i];
+                a[s3 + i] = tmp;
+                break;
+            case 2:
+                a[s0 + i] = a[s2 + i];
+                a[s2 + i] = tmp;
+                tmp = a[s1 + i];
+                a[s1 + i] = a[s3 + i];
+                a[s3 + i] = tmp;
+                break;
+            default:
+                a[s0 + i] = a[s3 + i];
+                a[s3 + i] = a[s2 + i];
+                a[s2 + i] = a[s1 + i];
+                a[s1 + i] = tmp;
+            }
+        }
+    }
+
+    // Turn the face of a given size starting at start by 1 or 3 clockwise
+    // quarters, as far as the rows from..to-1 of its top left quarter go:
+    // every square there goes round with the three it turns into. The quarter
+    // is walked in tiles, so the four tiles a tile of it moves, two of them
+    // walked down their columns, stay in the cache together.
+    void turnFace(byte[] a, int start, int size, int quarters, int from, int to) {
+        int last = size - 1;
+        int columns = (size + 1) / 2;
+        for (int ti = from; ti < to; ti += TILE) {
+            int iEnd = Math.min(to, ti + TILE);
+            for (int tj = 0; tj < columns; tj += TILE) {
+                int jEnd = Math.min(columns, tj + TILE);
+                for (int i = ti; i < iEnd; ++i) {
+                    for (int j = tj; j < jEnd; ++j) {
+                        int p0 = start + i * size + j;
+                        int p1 = start + (last - j) * size + i;
+                        int p2 = start + (last - i) * size + last - j;
+                        int p3 = start + j * size + last - i;
+                        byte tmp = a[p0];
+                        if (quarters == 1) {
+                            a[p0] = a[p1];
+                            a[p1] = a[p2];
+                            a[p2] = a[p3];
+                            a[p3] = tmp;
+                        } else {
+                            a[p0] = a[p3];
+                            a[p3] = a[p2];
+                            a[p2] = a[p1];
+                            a[p1] = tmp;
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+    // Turn n colours starting at offset into ASCII digits.
+    void toDigits(byte[] a, int offset, int n) {
+        for (int i = offset; i < offset + n; ++i) {
+            a[i] += '0';
+        }
+    }
+}
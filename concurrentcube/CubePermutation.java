@@ -0,0 +1,226 @@
+package concurrentcube;
+
+import java.util.Arrays;
+import java.util.function.IntUnaryOperator;
+
+// A sequence of moves compiled into a single permutation of the squares, so
+// that an algorithm of any length moves every square once (see
+// 'Cube.apply()') instead of once per move.
+//
+// Squares are numbered as they look, face after face, like in 'Cube.show()'.
+// After the permutation the square i has the colour that the square source(i)
+// had before. Only the squares that end up elsewhere are kept, so algorithms
+// touching few layers of a big cube stay small. Compiling costs about as much
+// as doing the moves, on top of a pass over all of the squares.
+public final class CubePermutation {
+    private final int size;
+
+    // The moves the permutation was compiled from, for callbacks and such.
+    private final int[] sides;
+    private final int[] layers;
+
+    // Square targets[k] gets the colour of square sources[k].
+    private final int[] targets;
+    private final int[] sources;
+
+    private CubePermutation(int size, int[] sides, int[] layers, int[] permutation) {
+        this.size = size;
+        this.sides = sides;
+        this.layers = layers;
+
+        int moved = 0;
+        for (int i = 0; i < permutation.length; ++i) {
+            if (permutation[i] != i) {
+                ++moved;
+            }
+        }
+        this.targets = new int[moved];
+        this.sources = new int[moved];
+        int k = 0;
+        for (int i = 0; i < permutation.length; ++i) {
+            if (permutation[i] != i) {
+                targets[k] = i;
+                sources[k++] = permutation[i];
+            }
+        }
+    }
+
+    // Compile rotate(sides[k], layers[k]) for consecutive k, clockwise quarter
+    // turns as in 'Cube.rotate(int, int)', for cubes of a given size.
+    public static CubePermutation compile(int size, int[] sides, int[] layers) {
+        if (size < 1 || size > CubeStorage.MAX_SIZE) {
+            throw new IllegalArgumentException("Invalid cube size: " + size);
+        }
+        if (sides.length != layers.length) {
+            throw new IllegalArgumentException("There must be a layer for every side!");
+        }
+        for (int k = 0; k < sides.length; ++k) {
+            if (sides[k] < 0 || sides[k] > 5 || layers[k] < 0 || layers[k] >= size) {
+                throw new IllegalArgumentException("Invalid move: " + sides[k] + ", "
+                                                   + layers[k]);
+            }
+        }
+
+        int[] permutation = identity(size);
+        Turner turner = new Turner(size, permutation);
+        for (int k = 0; k < sides.length; ++k) {
+            turner.rotate(sides[k], layers[k]);
+        }
+        return new CubePermutation(size, sides.clone(), layers.clone(), permutation);
+    }
+
+    // This permutation followed by another one of the same size.
+    public CubePermutation then(CubePermutation next) {
+        if (next.size != size) {
+            throw new IllegalArgumentException("The permutations are of different sizes!");
+        }
+
+        int[] first = dense();
+        int[] second = next.dense();
+        int[] permutation = new int[first.length];
+        for (int i = 0; i < permutation.length; ++i) {
+            permutation[i] = first[second[i]];
+        }
+
+        int[] s = Arrays.copyOf(sides, sides.length + next.sides.length);
+        int[] l = Arrays.copyOf(layers, layers.length + next.layers.length);
+        System.arraycopy(next.sides, 0, s, sides.length, next.sides.length);
+        System.arraycopy(next.layers, 0, l, layers.length, next.layers.length);
+        return new CubePermutation(size, s, l, permutation);
+    }
+
+    public int size() {
+        return size;
+    }
+
+    // Number of moves the permutation was compiled from.
+    public int moves() {
+        return sides.length;
+    }
+
+    public int side(int move) {
+        return sides[move];
+    }
+
+    public int layer(int move) {
+        return layers[move];
+    }
+
+    // Number of squares the permutation moves.
+    public int moved() {
+        return targets.length;
+    }
+
+    // Square whose colour square i gets.
+    public int source(int i) {
+        int k = Arrays.binarySearch(targets, i);
+        return k < 0 ? i : sources[k];
+    }
+
+    // Permute squares of a cube of the permutation's size, numbered as in
+    // 'Cube.show()' and starting at offset, in place.
+    public void apply(byte[] squares, int offset) {
+        byte[] moving = new byte[targets.length];
+        for (int k = 0; k < targets.length; ++k) {
+            moving[k] = squares[offset + sources[k]];
+        }
+        for (int k = 0; k < targets.length; ++k) {
+            squares[offset + targets[k]] = moving[k];
+        }
+    }
+
+    // The same for the storage of a cube, where index maps square numbers to
+    // the storage. Called by the cube with nobody else inside.
+    void apply(CubeStorage faces, IntUnaryOperator index) {
+        byte[] moving = new byte[targets.length];
+        for (int k = 0; k < targets.length; ++k) {
+            moving[k] = faces.get(index.applyAsInt(sources[k]));
+        }
+        for (int k = 0; k < targets.length; ++k) {
+            faces.set(index.applyAsInt(targets[k]), moving[k]);
+        }
+    }
+
+    private static int[] identity(int size) {
+        int[] permutation = new int[6 * size * size];
+        for (int i = 0; i < permutation.length; ++i) {
+            permutation[i] = i;
+        }
+        return permutation;
+    }
+
+    private int[] dense() {
+        int[] permutation = identity(size);
+        for (int k = 0; k < targets.length; ++k) {
+            permutation[targets[k]] = sources[k];
+        }
+        return permutation;
+    }
+
+    // Does the moves on an array of square numbers the way the cube does them
+    // on colours: around the axis, the strips described in CubeGeometry take
+    // the squares of the next strip, and the outer layers turn a face.
+    private static final class Turner {
+        private final int size;
+        private final int[] squares;
+        private final int[] strip;
+        private final int[] face;
+
+        Turner(int size, int[] squares) {
+            this.size = size;
+            this.squares = squares;
+            this.strip = new int[size];
+            this.face = new int[size * size];
+        }
+
+        void rotate(int side, int layer) {
+            int ax = CubeGeometry.axis(side);
+            int axisLayer = CubeGeometry.axisLayer(size, side, layer);
+            int quarters = ax == side ? 1 : 3;
+            for (int q = 0; q < quarters; ++q) {
+                quarter(ax, axisLayer);
+            }
+        }
+
+        private int square(int ax, int layer, int k, int i) {
+            int f = CubeGeometry.stripFace(ax, k);
+            return (f * size + CubeGeometry.stripRow(size, ax, layer, k, i)) * size
+                + CubeGeometry.stripColumn(size, ax, layer, k, i);
+        }
+
+        // One clockwise quarter turn of a layer around an axis.
+        private void quarter(int ax, int layer) {
+            if (layer == 0) {
+                turnFace(ax, 1);
+            } else if (layer == size - 1) {
+                turnFace(CubeGeometry.oppositeFace(ax), 3);
+            }
+
+            for (int i = 0; i < size; ++i) {
+                strip[i] = squares[square(ax, layer, 0, i)];
+            }
+            for (int k = 0; k < 3; ++k) {
+                for (int i = 0; i < size; ++i) {
+                    squares[square(ax, layer, k, i)] = squares[square(ax, layer, k + 1, i)];
+                }
+            }
+            for (int i = 0; i < size; ++i) {
+                squares[square(ax, layer, 3, i)] = strip[i];
+            }
+        }
+
+        // Turn a face clockwise: the square in row i and column j gets the
+        // one from row size - j - 1 and column i.
+        private void turnFace(int f, int quarters) {
+            int start = f * size * size;
+            for (int q = 0; q < quarters; ++q) {
+                System.arraycopy(squares, start, face, 0, face.length);
+                for (int i = 0; i < size; ++i) {
+                    for (int j = 0; j < size; ++j) {
+                        squares[start + i * size + j] = face[(size - j - 1) * size + i];
+                    }
+                }
+            }
+        }
+    }
+}
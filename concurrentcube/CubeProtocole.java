@@ -0,0 +1,21 @@
+package concurrentcube;
+
+// Admission of operations to the cube's critical section.
+// Rotations around the same axis may be inside together (they exclude each
+// other per layer separately), so may several shows, but an axis group never
+// shares the cube with another axis group or with shows. Implementations must
+// be free from starvation. A protocole keeps the state of one cube and cannot
+// be shared between cubes.
+public interface CubeProtocole {
+    // Wait until a rotation around axis ax may enter the cube.
+    void rotateEntry(int ax) throws InterruptedException;
+
+    // Leave the cube after a rotation around axis ax.
+    void rotateExit(int ax);
+
+    // Wait until a show may enter the cube.
+    void showEntry() throws InterruptedException;
+
+    // Leave the cube after showing it.
+    void showExit();
+}
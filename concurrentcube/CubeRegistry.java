@@ -0,0 +1,115 @@
+package concurrentcube;
+
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.function.BiConsumer;
+
+// Many independent cubes kept by their ids, eg. one per game of a server.
+// All of them do their asynchronous operations on one shared executor, each
+// through a CubeScheduler of its own made on the first use. A scheduler has at
+// most one group of its cube on the executor at a time, so a hot cube queues
+// its next group behind the groups of other cubes and every cube gets its
+// share of the workers.
+//
+// An idle cube costs its squares, one reference and one sequence number per
+// layer and a handful of small objects: layer mutices and the scheduler are
+// only made when needed, and cubes made by the registry share their
+// callbacks.
+public class CubeRegistry {
+    private static final BiConsumer<Integer, Integer> NO_ROTATION = (x, y) -> {
+    };
+    private static final Runnable NO_SHOW = () -> {
+    };
+
+    private final Executor executor;
+
+    private final ConcurrentHashMap<String, Entry> cubes = new ConcurrentHashMap<>();
+
+    private final class Entry {
+        private final Cube cube;
+        private volatile CubeScheduler scheduler;
+
+        Entry(Cube cube) {
+            this.cube = cube;
+        }
+
+        CubeScheduler scheduler() {
+            CubeScheduler s = scheduler;
+            if (s == null) {
+                synchronized (this) {
+                    s = scheduler;
+                    if (s == null) {
+                        s = new CubeScheduler(cube, executor);
+                        scheduler = s;
+                    }
+                }
+            }
+            return s;
+        }
+    }
+
+    // The executor should be a bounded pool, see CubeScheduler.
+    public CubeRegistry(Executor executor) {
+        this.executor = executor;
+    }
+
+    // Make a solved cube of a given size with no callbacks, synchronised by
+    // an AtomicProtocole.
+    public Cube create(String id, int size) {
+        Cube cube = new Cube(new ArrayCubeStorage(size), new AtomicProtocole(),
+                             NO_ROTATION, NO_ROTATION, NO_SHOW, NO_SHOW);
+        register(id, cube);
+        return cube;
+    }
+
+    // Keep a cube made elsewhere. Throws IllegalArgumentException if the id
+    // is taken.
+    public void register(String id, Cube cube) {
+        if (cubes.putIfAbsent(id, new Entry(cube)) != null) {
+            throw new IllegalArgumentException("There already is a cube " + id + "!");
+        }
+    }
+
+    // The cube of a given id, null if there is none.
+    public Cube get(String id) {
+        Entry entry = cubes.get(id);
+        return entry == null ? null : entry.cube;
+    }
+
+    // Forget a cube. Operations already queued still get done. Returns the
+    // cube, null if there was none.
+    public Cube remove(String id) {
+        Entry entry = cubes.remove(id);
+        return entry == null ? null : entry.cube;
+    }
+
+    // A live view of the ids of the cubes.
+    public Set<String> ids() {
+        return Collections.unmodifiableSet(cubes.keySet());
+    }
+
+    public int size() {
+        return cubes.size();
+    }
+
+    // 'CubeScheduler.rotateAsync()' of a cube on the shared executor.
+    public CompletableFuture<Void> rotateAsync(String id, int side, int layer) {
+        return entry(id).scheduler().rotateAsync(side, layer);
+    }
+
+    // 'CubeScheduler.showAsync()' of a cube on the shared executor.
+    public CompletableFuture<String> showAsync(String id) {
+        return entry(id).scheduler().showAsync();
+    }
+
+    private Entry entry(String id) {
+        Entry entry = cubes.get(id);
+        if (entry == null) {
+            throw new IllegalArgumentException("There is no cube " + id + "!");
+        }
+        return entry;
+    }
+}
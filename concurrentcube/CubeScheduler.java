@@ -0,0 +1,259 @@
+package concurrentcube;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+
+// Asynchronous rotations and shows of a cube. Requests are queued per axis
+// (and one queue for shows) and nobody waits for them: the scheduler lets one
+// group at a time onto the cube by handing its requests to a pool of workers.
+//
+// A rotation group takes everything queued for its axis. The moves are sorted
+// by their layer (moves of one layer keep their order) and every layer gets
+// one task doing all of its moves, so disjoint layers rotate in parallel and
+// nobody waits for a layer's mutex. A show group runs all queued shows at once.
+// The next group is picked like in SemaphoreProtocole: shows after an axis
+// group, then axes round-robin from the last one.
+//
+// The tasks still go through the cube's protocole, so asynchronous requests
+// mix correctly with blocking 'rotate()' and 'show()' calls of other threads.
+// The workers may block on the protocole, thus the executor should not be one
+// that runs tasks in the calling thread. On a fork-join pool (like the common
+// one 'Cube.rotateAsync()' uses) the blocking is managed: the pool makes up
+// for a blocked worker with another thread, so a busy cube does not stall the
+// pool's other users.
+public class CubeScheduler {
+    private final Cube cube;
+    private final Executor executor;
+
+    // A rotation waiting for its turn.
+    private static class Move {
+        private final int side;
+        private final int layer;
+        private final int axisLayer;
+        private final CompletableFuture<Void> done = new CompletableFuture<>();
+
+        Move(int side, int layer, int axisLayer) {
+            this.side = side;
+            this.layer = layer;
+            this.axisLayer = axisLayer;
+        }
+    }
+
+    // Everything below is guarded by 'this'.
+
+    private final List<ArrayDeque<Move>> moves = List.of(new ArrayDeque<>(),
+        new ArrayDeque<>(), new ArrayDeque<>());
+
+    private final ArrayDeque<CompletableFuture<String>> shows = new ArrayDeque<>();
+
+    // The group handed to the workers, -1 if none is.
+    private int current = -1;
+
+    // Tasks of the current group that have not finished yet.
+    private int running = 0;
+
+    // The group that went last and the last axis that have been used in
+    // rotation.
+    private int last = SchedulingPolicy.SHOWS;
+    private int lastAx = 0;
+
+    public CubeScheduler(Cube cube, Executor executor) {
+        this.cube = cube;
+        this.executor = executor;
+    }
+
+    // Rotate a layer facing a side clockwise, as 'Cube.rotate(int, int)' would.
+    // The future completes when the rotation is done. If it fails, eg. with an
+    // exception from a callback, the future is completed with that exception.
+    public CompletableFuture<Void> rotateAsync(int side, int layer) {
+        Move move = new Move(side, layer, CubeGeometry.axisLayer(cube.size(), side, layer));
+        synchronized (this) {
+            moves.get(CubeGeometry.axis(side)).add(move);
+        }
+        dispatch();
+        return move.done;
+    }
+
+    // Show the cube, as 'Cube.show()' would.
+    public CompletableFuture<String> showAsync() {
+        CompletableFuture<String> show = new CompletableFuture<>();
+        synchronized (this) {
+            shows.add(show);
+        }
+        dispatch();
+        return show;
+    }
+
+    private boolean waiting(int group) {
+        if (group == SchedulingPolicy.SHOWS) {
+            return !shows.isEmpty();
+        }
+        return !moves.get(group).isEmpty();
+    }
+
+    // Pick a group to go after the one that has just finished, -1 if nothing
+    // is queued.
+    private int nextGroup(int finished) {
+        if (finished != SchedulingPolicy.SHOWS && waiting(SchedulingPolicy.SHOWS)) {
+            return SchedulingPolicy.SHOWS;
+        }
+
+        int from = finished == SchedulingPolicy.SHOWS ? lastAx : finished;
+        for (int j = 1; j <= 3; ++j) {
+            int i = (from + j) % 3;
+            if (waiting(i)) {
+                return i;
+            }
+        }
+
+        return waiting(SchedulingPolicy.SHOWS) ? SchedulingPolicy.SHOWS : -1;
+    }
+
+    // Hand the next group to the workers if the cube is free. The tasks are
+    // collected under the lock and started outside of it.
+    private void dispatch() {
+        List<Move[]> runs = new ArrayList<>();
+        List<CompletableFuture<String>> showing = new ArrayList<>();
+        synchronized (this) {
+            if (current != -1) {
+                return;
+            }
+
+            int next = nextGroup(last);
+            if (next == -1) {
+                return;
+            } else if (next == SchedulingPolicy.SHOWS) {
+                showing.addAll(shows);
+                shows.clear();
+            } else {
+                Move[] group = moves.get(next).toArray(new Move[0]);
+                moves.get(next).clear();
+                // The sort is stable so moves of one layer keep their order.
+                Arrays.sort(group, Comparator.comparingInt(m -> m.axisLayer));
+                int from = 0;
+                while (from < group.length) {
+                    int to = from;
+                    while (to < group.length && group[to].axisLayer == group[from].axisLayer) {
+                        ++to;
+                    }
+                    runs.add(Arrays.copyOfRange(group, from, to));
+                    from = to;
+                }
+            }
+
+            current = next;
+            running = runs.size() + showing.size();
+        }
+
+        // A task the executor rejects will never run so it fails right away.
+        for (Move[] run : runs) {
+            try {
+                executor.execute(() -> rotate(run));
+            } catch (RuntimeException e) {
+                finished();
+                complete(run, e);
+            }
+        }
+        for (CompletableFuture<String> show : showing) {
+            try {
+                executor.execute(() -> show(show));
+            } catch (RuntimeException e) {
+                finished();
+                show.completeExceptionally(e);
+            }
+        }
+    }
+
+    // Do all moves of one layer in one admission to the cube.
+    private void rotate(Move[] run) {
+        int[] sides = new int[run.length];
+        int[] layers = new int[run.length];
+        for (int i = 0; i < run.length; ++i) {
+            sides[i] = run[i].side;
+            layers[i] = run[i].layer;
+        }
+
+        Throwable failure = null;
+        try {
+            blocking(() -> cube.rotateAll(sides, layers));
+        } catch (Throwable e) {
+            failure = e;
+        }
+        finished();
+        complete(run, failure);
+    }
+
+    // Complete the futures of moves, exceptionally unless the failure is null.
+    private static void complete(Move[] run, Throwable failure) {
+        for (Move move : run) {
+            if (failure == null) {
+                move.done.complete(null);
+            } else {
+                move.done.completeExceptionally(failure);
+            }
+        }
+    }
+
+    private void show(CompletableFuture<String> show) {
+        String[] cubeString = new String[1];
+        Throwable failure = null;
+        try {
+            blocking(() -> cubeString[0] = cube.show());
+        } catch (Throwable e) {
+            failure = e;
+        }
+        finished();
+
+        if (failure == null) {
+            show.complete(cubeString[0]);
+        } else {
+            show.completeExceptionally(failure);
+        }
+    }
+
+    // An operation on the cube that may wait for its protocole or layers.
+    private interface Operation {
+        void run() throws InterruptedException;
+    }
+
+    // Run an operation as a managed block of the fork-join pool of the worker,
+    // if it is one, or just run it otherwise.
+    private static void blocking(Operation operation) throws InterruptedException {
+        ForkJoinPool.managedBlock(new ForkJoinPool.ManagedBlocker() {
+            private boolean done = false;
+
+            @Override
+            public boolean block() throws InterruptedException {
+                operation.run();
+                done = true;
+                return true;
+            }
+
+            @Override
+            public boolean isReleasable() {
+                return done;
+            }
+        });
+    }
+
+    // A task of the current group is over, the last one lets the next group go.
+    private void finished() {
+        synchronized (this) {
+            if (--running > 0) {
+                return;
+            }
+            last = current;
+            if (current != SchedulingPolicy.SHOWS) {
+                lastAx = current;
+            }
+            current = -1;
+        }
+        dispatch();
+    }
+}
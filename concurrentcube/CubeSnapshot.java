@@ -0,0 +1,56 @@
+package concurrentcube;
+
+import java.nio.charset.StandardCharsets;
+
+// An immutable picture of a cube taken between rotations (see
+// Cube.snapshot()). Every face is kept in its own array, row after row.
+public final class CubeSnapshot {
+    private final int size;
+    private final byte[][] faces;
+
+    CubeSnapshot(int size, byte[][] faces) {
+        this.size = size;
+        this.faces = faces;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    // Colour of the square in the ith row and jth column of face f.
+    public int get(int f, int i, int j) {
+        return faces[f][i * size + j];
+    }
+
+    // A copy of the colours of face f, row after row.
+    public byte[] face(int f) {
+        return faces[f].clone();
+    }
+
+    // Copy length squares starting from a given index, counted face after
+    // face as in 'Cube.show()', into dst at offset.
+    void read(int index, byte[] dst, int offset, int length) {
+        int faceSize = size * size;
+        while (length > 0) {
+            int f = index / faceSize;
+            int n = Math.min(length, (f + 1) * faceSize - index);
+            System.arraycopy(faces[f], index - f * faceSize, dst, offset, n);
+            index += n;
+            offset += n;
+            length -= n;
+        }
+    }
+
+    // The same representation of the cube as 'Cube.show()' gives.
+    @Override
+    public String toString() {
+        byte[] digits = new byte[6 * size * size];
+        int k = 0;
+        for (byte[] face : faces) {
+            for (byte colour : face) {
+                digits[k++] = (byte) ('0' + colour);
+            }
+        }
+        return new String(digits, StandardCharsets.US_ASCII);
+    }
+}
@@ -1,5 +1,7 @@
 package concurrentcube;
 
+// Address of a single square of the cube: the face it lies on and its row and
+// column within that face.
 public class CubeSquare {
     private final int face;
     private final int i;
@@ -0,0 +1,6 @@
+package concurrentcube;
+
+// JMX view of an instrumented cube, see 'InstrumentedProtocole.registerMBean()'.
+public interface CubeStatsMXBean {
+    CubeStats getStats();
+}
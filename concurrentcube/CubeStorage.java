@@ -0,0 +1,52 @@
+package concurrentcube;
+
+// Storage of the squares of a cube.
+// Squares are addressed by a single index in face-major order: the square in
+// the ith row and jth column of face f of a cube with a given size lives under
+// index (f * size + i) * size + j. Every square holds its colour, ie. the
+// number of the face it has been on in the solved cube.
+//
+// A face may also be stored turned: it then looks like its stored squares
+// turned clockwise orientation(f) times. This lets the cube turn a whole face
+// by just changing the number.
+public interface CubeStorage {
+    // Largest size for which all 6 * size * size squares can be indexed with
+    // an int.
+    int MAX_SIZE = 18918;
+
+    // Number of layers of the stored cube.
+    int size();
+
+    // Colour of the square under a given index.
+    byte get(int index);
+
+    // Paint the square under a given index.
+    void set(int index, byte colour);
+
+    // Number of clockwise quarter turns (0 to 3) that turn the stored squares
+    // of face f into how it looks.
+    int orientation(int face);
+
+    void setOrientation(int face, int quarterTurns);
+
+    // Copy the colours of length consecutive squares starting from a given
+    // index into dst, starting at offset.
+    default void read(int index, byte[] dst, int offset, int length) {
+        for (int i = 0; i < length; ++i) {
+            dst[offset + i] = get(index + i);
+        }
+    }
+
+    // Paint length consecutive squares starting from a given index with the
+    // colours in src, starting at offset.
+    default void write(int index, byte[] src, int offset, int length) {
+        for (int i = 0; i < length; ++i) {
+            set(index + i, src[offset + i]);
+        }
+    }
+
+    // Make sure the squares reach durable storage. Nothing to do for storages
+    // living solely in memory.
+    default void force() {
+    }
+}
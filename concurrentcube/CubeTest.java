@@ -4,11 +4,30 @@ import org.junit.Test;
 
 import concurrentcube.Cube;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
 import java.util.Random;
 import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import javax.management.openmbean.CompositeData;
 
 // This is a jUnit test class for the implementation of a concurrent Rubik's
 // cube. It tests its various qualites such as rotation correctness, their
@@ -39,6 +58,26 @@ public class CubeTest {
         }
     }
 
+    // The same check for a snapshot of the cube.
+    private static void assertCorrectSnapshot(CubeSnapshot snapshot) {
+        int size = snapshot.size();
+        int occurences[] = { 0, 0, 0, 0, 0, 0 };
+        for (int f = 0; f < 6; ++f) {
+            for (int i = 0; i < size; ++i) {
+                for (int j = 0; j < size; ++j) {
+                    ++occurences[snapshot.get(f, i, j)];
+                }
+            }
+        }
+
+        for (int i = 0; i < 6; ++i) {
+            if (occurences[i] != size * size) {
+                throw new AssertionError("torn snapshot: " + occurences[i]
+                                         + " occurences of colour '" + i + "'");
+            }
+        }
+    }
+
     // A helper function for an integerous square root.
     private static int sqrt(int square) {
         return (int) Math.sqrt(square);
@@ -138,6 +177,40 @@ public class CubeTest {
         return threads;
     }
 
+    // Check a log of cube operations written by their callbacks (see
+    // loggingTest below for the format).
+    private static void assertWellSynchronised(List<String> log) {
+        char current = log.get(0).charAt(1);
+        int balance = 0;
+
+        // The log describes a correctly synchronised cube iff for each "iX"
+        // there is a corresponding "oX" and when isnide a block of "iX .." only
+        // threads from the group 'X' enter the cube eg. ["i0", "i1" .. ] is
+        // deemed incorrect as a rotation of axis 1 happened together with a
+        // different axis. ["i1", "o1", "i0"] would be correct.
+        for (String state : log) {
+            if (state.charAt(1) != current) {
+                if (balance != 0)
+                    throw new AssertionError
+                        ("found '" + state.charAt(1) + "' inside a block of '"
+                         + current + "'");
+
+                current = state.charAt(1);
+            }
+
+            if (state.charAt(0) == 'i')
+                ++balance;
+            else
+                --balance;
+
+            if (balance < 0)
+                throw new AssertionError("negative i-o balance!");
+        }
+
+        if (balance != 0)
+            throw new AssertionError("non zero final i-o balance!");
+    }
+
     // This test aims to test whether the synchronisation of cube operations
     // is correct ie. only non-colliding operations are inside of the critical
     // section at the same time.
@@ -179,38 +252,10 @@ public class CubeTest {
             }
         });
 
-        char current = log.get(0).charAt(1);
-        int balance = 0;
-
-        // The log describes a correctly synchronised cube iff for each "iX"
-        // there is a corresponding "oX" and when isnide a block of "iX .." only
-        // threads from the group 'X' enter the cube eg. ["i0", "i1" .. ] is
-        // deemed incorrect as a rotation of axis 1 happened together with a
-        // different axis. ["i1", "o1", "i0"] would be correct.
-        for (String state : log) {
-            if (state.charAt(1) != current) {
-                if (balance != 0)
-                    throw new AssertionError
-                        ("found '" + state.charAt(1) + "' inside a block of '"
-                         + current + "'");
-
-                current = state.charAt(1);
-            }
-
-            if (state.charAt(0) == 'i')
-                ++balance;
-            else
-                --balance;
-
-            if (balance < 0)
-                throw new AssertionError("negative i-o balance!");
-        }
-
         // it looks cool so you might want to see that
         // System.out.println(log);
-        
-        if (balance != 0)
-            throw new AssertionError("non zero final i-o balance!");
+
+        assertWellSynchronised(log);
 
         assertCorrectCube(cube);
     }
@@ -409,4 +454,2043 @@ public class CubeTest {
             throw new AssertionError("Unexpected interruption!");
         }
     }
+
+    // The original, straightforward implementation of sequential rotations.
+    // Every quadruple swap addresses its squares via CubeSquare objects. It is
+    // kept here as a model the optimised kernels of Cube are checked against.
+    private static class ReferenceCube {
+        private final int size;
+        private final int[][][] faces;
+
+        public ReferenceCube(int size) {
+            this.size = size;
+            faces = new int[6][size][size];
+            for (int f = 0; f < 6; ++f) {
+                for (int i = 0; i < size; ++i) {
+                    for (int j = 0; j < size; ++j) {
+                        faces[f][i][j] = f;
+                    }
+                }
+            }
+        }
+
+        private static int oppositeFace(int f) {
+            return new int[] { 5, 3, 4, 1, 2, 0 }[f];
+        }
+
+        public void rotate(int side, int layer) {
+            int ax = side < 3 ? side : oppositeFace(side);
+            int transpLayer = side != ax ? size - layer - 1 : layer;
+            boolean clockwise = ax == side;
+
+            if (transpLayer == 0) {
+                rotateFace(ax, clockwise);
+            } else if (transpLayer == size - 1) {
+                rotateFace(oppositeFace(ax), !clockwise);
+            }
+
+            for (int i = 0; i < size; ++i) {
+                if (ax == 0) {
+                    swap4(new CubeSquare(1, transpLayer, i),
+                          new CubeSquare(2, transpLayer, i),
+                          new CubeSquare(3, transpLayer, i),
+                          new CubeSquare(4, transpLayer, i), clockwise);
+                } else if (ax == 1) {
+                    swap4(new CubeSquare(4, size - i - 1, size - transpLayer - 1),
+                          new CubeSquare(5, i, transpLayer),
+                          new CubeSquare(2, i, transpLayer),
+                          new CubeSquare(0, i, transpLayer), clockwise);
+                } else {
+                    swap4(new CubeSquare(0, size - transpLayer - 1, i),
+                          new CubeSquare(1, size - i - 1, size - transpLayer - 1),
+                          new CubeSquare(5, transpLayer, size - i - 1),
+                          new CubeSquare(3, i, transpLayer), clockwise);
+                }
+            }
+        }
+
+        private void rotateFace(int which, boolean clockwise) {
+            int[][] old = new int[size][];
+            for (int i = 0; i < size; ++i) {
+                old[i] = faces[which][i].clone();
+            }
+            for (int i = 0; i < size; ++i) {
+                for (int j = 0; j < size; ++j) {
+                    faces[which][i][j] = clockwise ? old[size - j - 1][i]
+                        : old[j][size - i - 1];
+                }
+            }
+        }
+
+        private int get(CubeSquare s) {
+            return faces[s.getFace()][s.getI()][s.getJ()];
+        }
+
+        private void set(CubeSquare s, int colour) {
+            faces[s.getFace()][s.getI()][s.getJ()] = colour;
+        }
+
+        private void swap4(CubeSquare s0, CubeSquare s1, CubeSquare s2,
+                           CubeSquare s3, boolean clockwise) {
+            int[] tmp = { get(s0), get(s1), get(s2), get(s3) };
+            int shift = clockwise ? 1 : 3;
+            set(s0, tmp[shift % 4]);
+            set(s1, tmp[(1 + shift) % 4]);
+            set(s2, tmp[(2 + shift) % 4]);
+            set(s3, tmp[(3 + shift) % 4]);
+        }
+
+        public String show() {
+            StringBuilder sb = new StringBuilder();
+            for (int f = 0; f < 6; ++f) {
+                for (int i = 0; i < size; ++i) {
+                    for (int j = 0; j < size; ++j) {
+                        sb.append(faces[f][i][j]);
+                    }
+                }
+            }
+            return sb.toString();
+        }
+    }
+
+    // A cube with no-op callbacks.
+    private static Cube plainCube(int size) {
+        return new Cube(size, (x, y) -> {
+        }, (x, y) -> {
+        }, () -> {
+        }, () -> {
+        });
+    }
+
+    // Random sequences of rotations applied to the cube and to the reference
+    // model have to result in identical states.
+    @Test
+    public void kernelsMatchReference() {
+        Random r = new Random(2137);
+        int[] sizes = { 1, 2, 3, 4, 5, 10, 17 };
+        try {
+            for (int size : sizes) {
+                Cube cube = plainCube(size);
+                ReferenceCube reference = new ReferenceCube(size);
+                for (int i = 0; i < 2000; ++i) {
+                    int side = r.nextInt(6);
+                    int layer = r.nextInt(size);
+                    cube.rotate(side, layer);
+                    reference.rotate(side, layer);
+                    if (i % 100 == 0 && !cube.show().equals(reference.show())) {
+                        throw new AssertionError("size " + size + ": states differ"
+                                                 + " after " + (i + 1) + " moves");
+                    }
+                }
+                if (!cube.show().equals(reference.show())) {
+                    throw new AssertionError("size " + size + ": states differ");
+                }
+            }
+        } catch (InterruptedException e) {
+            throw new AssertionError("Unexpected interruption!");
+        }
+    }
+
+    // A cube of size 0 has no squares but works, as it always has. Sizes whose
+    // squares an int cannot index are refused.
+    @Test
+    public void cubeSizes() {
+        Cube empty = plainCube(0);
+        try {
+            empty.normalize();
+            if (!empty.show().isEmpty() || !empty.snapshot().toString().isEmpty()) {
+                throw new AssertionError("A cube of size 0 shows some squares!");
+            }
+        } catch (InterruptedException e) {
+            throw new AssertionError("Unexpected interruption!");
+        }
+
+        for (int size : new int[] { -1, CubeStorage.MAX_SIZE + 1 }) {
+            try {
+                new ArrayCubeStorage(size);
+                throw new AssertionError("A cube of size " + size + " has been created!");
+            } catch (IllegalArgumentException e) {
+            }
+        }
+    }
+
+    // A cube living in a memory mapped file keeps its state across reopening
+    // of the file.
+    @Test
+    public void mappedStoragePersists() throws IOException {
+        int size = 7;
+        Path dir = Files.createTempDirectory("cube");
+        Path file = dir.resolve("cube.bin");
+        Random r = new Random(42);
+        try {
+            String expected;
+            try (MappedCubeStorage storage = MappedCubeStorage.create(file, size)) {
+                Cube cube = new Cube(storage, (x, y) -> {
+                }, (x, y) -> {
+                }, () -> {
+                }, () -> {
+                });
+                ReferenceCube reference = new ReferenceCube(size);
+                for (int i = 0; i < 500; ++i) {
+                    int side = r.nextInt(6);
+                    int layer = r.nextInt(size);
+                    cube.rotate(side, layer);
+                    reference.rotate(side, layer);
+                }
+                cube.persist();
+                expected = cube.show();
+                if (!expected.equals(reference.show())) {
+                    throw new AssertionError("Mapped cube differs from the reference!");
+                }
+            }
+
+            try (MappedCubeStorage storage = MappedCubeStorage.open(file)) {
+                Cube cube = new Cube(storage, (x, y) -> {
+                }, (x, y) -> {
+                }, () -> {
+                }, () -> {
+                });
+                if (!expected.equals(cube.show())) {
+                    throw new AssertionError("Reopened cube differs from the saved one!");
+                }
+            }
+        } catch (InterruptedException e) {
+            throw new AssertionError("Unexpected interruption!");
+        } finally {
+            Files.deleteIfExists(file);
+            Files.delete(dir);
+        }
+    }
+
+    // A storage failing to write itself through must not leave the cube shut
+    // for the others.
+    @Test
+    public void failingPersist() {
+        int size = 3;
+        Cube cube = new Cube(new ArrayCubeStorage(size) {
+            @Override
+            public void force() {
+                throw new IllegalStateException("Failing storage!");
+            }
+        }, (x, y) -> {
+        }, (x, y) -> {
+        }, () -> {
+        }, () -> {
+        });
+
+        try {
+            cube.persist();
+            throw new AssertionError("The failing persist has succeeded!");
+        } catch (IllegalStateException e) {
+        } catch (InterruptedException e) {
+            throw new AssertionError("Unexpected interruption!");
+        }
+
+        Thread rotor = new Thread(() -> {
+            try {
+                cube.rotate(0, 0);
+            } catch (InterruptedException e) {
+            }
+        });
+        rotor.start();
+        joinAll(List.of(rotor), 10000);
+    }
+
+    // Wait for all of the threads to finish within a common deadline.
+    private static void joinAll(List<Thread> threads, long maxDelay) {
+        long deadline = System.currentTimeMillis() + maxDelay;
+        threads.forEach(t -> {
+            try {
+                t.join(Math.max(1, deadline - System.currentTimeMillis()));
+                if (t.isAlive()) {
+                    throw new AssertionError("Threads haven't finished in time!");
+                }
+            } catch (InterruptedException e) {
+            }
+        });
+    }
+
+    // The same check as in loggingTest but for cubes synchronised by other
+    // protocoles.
+    private void checkProtocoleLogging(CubeProtocole protocole) {
+        int size = 10;
+        List<String> log = Collections.synchronizedList(new ArrayList<>());
+        Cube cube = new Cube(new ArrayCubeStorage(size), protocole,
+                             (x, y) -> {
+            log.add("i" + ax(x));
+        }, (x, y) -> {
+            log.add("o" + ax(x));
+        }, () -> {
+            log.add("iS");
+        }, () -> {
+            log.add("oS");
+        });
+
+        List<Thread> threads = aleatoryRotorsShowers(200, 0.3, cube, size, 50);
+        threads.forEach(Thread::start);
+        joinAll(threads, 20000);
+
+        assertWellSynchronised(log);
+        assertCorrectCube(cube);
+    }
+
+    @Test
+    public void atomicProtocoleLogging() {
+        checkProtocoleLogging(new AtomicProtocole());
+    }
+
+    @Test
+    public void conditionProtocoleLogging() {
+        checkProtocoleLogging(new ConditionProtocole());
+    }
+
+    // Rotations around one axis keep joining the cube all the time. Neither
+    // a show nor a rotation around another axis may starve.
+    private void checkProtocoleNoStarvation(CubeProtocole protocole) {
+        int size = 10;
+        Cube cube = new Cube(new ArrayCubeStorage(size), protocole,
+                             (x, y) -> {
+            Thread.yield();
+        }, (x, y) -> {
+        }, () -> {
+        }, () -> {
+        });
+
+        List<Thread> rotors = new ArrayList<>();
+        for (int i = 0; i < 8; ++i) {
+            rotors.add(new Thread(() -> {
+                try {
+                    while (!Thread.currentThread().isInterrupted()) {
+                        cube.rotate(0, ThreadLocalRandom.current().nextInt(size));
+                    }
+                } catch (InterruptedException e) {
+                }
+            }));
+        }
+        rotors.forEach(Thread::start);
+
+        List<Thread> others = new ArrayList<>();
+        others.add(new Thread(() -> {
+            try {
+                for (int i = 0; i < 50; ++i) {
+                    cube.show();
+                }
+            } catch (InterruptedException e) {
+            }
+        }));
+        others.add(new Thread(() -> {
+            try {
+                for (int i = 0; i < 50; ++i) {
+                    cube.rotate(1, i % size);
+                }
+            } catch (InterruptedException e) {
+            }
+        }));
+        others.forEach(Thread::start);
+        try {
+            joinAll(others, 10000);
+        } finally {
+            rotors.forEach(Thread::interrupt);
+            joinAll(rotors, 10000);
+        }
+
+        assertCorrectCube(cube);
+    }
+
+    @Test
+    public void atomicProtocoleNoStarvation() {
+        checkProtocoleNoStarvation(new AtomicProtocole());
+    }
+
+    @Test
+    public void conditionProtocoleNoStarvation() {
+        checkProtocoleNoStarvation(new ConditionProtocole());
+    }
+
+    // A thread waiting for its axis must get in while a steady stream of
+    // latecomers to the same axis (and to other groups, keeping the queue
+    // busy) goes on: latecomers must never take its place in the group.
+    private static void checkProtocoleWaiterNotOvertaken(CubeProtocole protocole) {
+        AtomicInteger victimIn = new AtomicInteger(0);
+        List<Thread> stream = new ArrayList<>();
+        for (int t = 0; t < 16; ++t) {
+            int group = t < 10 ? 0 : t < 13 ? 1 : 3;
+            stream.add(new Thread(() -> {
+                try {
+                    while (victimIn.get() == 0) {
+                        if (group == 3) {
+                            protocole.showEntry();
+                            protocole.showExit();
+                        } else {
+                            protocole.rotateEntry(group);
+                            Thread.yield();
+                            protocole.rotateExit(group);
+                        }
+                    }
+                } catch (InterruptedException e) {
+                }
+            }));
+        }
+        Thread victim = new Thread(() -> {
+            try {
+                protocole.rotateEntry(0);
+                victimIn.set(1);
+                protocole.rotateExit(0);
+            } catch (InterruptedException e) {
+            }
+        });
+
+        try {
+            // The victim queues up behind a show with the stream already going.
+            protocole.showEntry();
+            stream.forEach(Thread::start);
+            victim.start();
+            Thread.sleep(50);
+            protocole.showExit();
+
+            victim.join(10000);
+            if (victimIn.get() == 0) {
+                throw new AssertionError("A waiter has been overtaken by latecomers!");
+            }
+        } catch (InterruptedException e) {
+            throw new AssertionError("Unexpected interruption!");
+        } finally {
+            // The stream stops by itself once the flag is up.
+            victimIn.set(1);
+            joinAll(stream, 10000);
+        }
+    }
+
+    @Test
+    public void waiterNotOvertaken() {
+        checkProtocoleWaiterNotOvertaken(new SemaphoreProtocole());
+        checkProtocoleWaiterNotOvertaken(new AtomicProtocole());
+        checkProtocoleWaiterNotOvertaken(new ConditionProtocole());
+    }
+
+    // Other scheduling policies must keep the protocoles exclusive and free
+    // from starvation, even with rotations around one axis coming all the time.
+    @Test
+    public void throughputPolicy() {
+        checkProtocoleLogging(new AtomicProtocole(new ThroughputPolicy(16)));
+        checkProtocoleLogging(new ConditionProtocole(new ThroughputPolicy(16)));
+        checkProtocoleNoStarvation(new AtomicProtocole(new ThroughputPolicy(16)));
+        checkProtocoleNoStarvation(new ConditionProtocole(new ThroughputPolicy(16)));
+    }
+
+    @Test
+    public void deadlinePolicy() {
+        checkProtocoleLogging(new AtomicProtocole(new DeadlinePolicy()));
+        checkProtocoleLogging(new ConditionProtocole(new DeadlinePolicy()));
+        checkProtocoleNoStarvation(new AtomicProtocole(new DeadlinePolicy(1000000, 0)));
+        checkProtocoleNoStarvation(new ConditionProtocole(new DeadlinePolicy(1000000, 0)));
+        checkDeadlineAfterInterruption(new AtomicProtocole(new DeadlinePolicy()));
+        checkDeadlineAfterInterruption(new ConditionProtocole(new DeadlinePolicy()));
+    }
+
+    // Wait until a thread waits (eg. in a protocole).
+    private static void awaitWaiting(Thread t) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 10000;
+        while (t.getState() != Thread.State.WAITING) {
+            if (System.currentTimeMillis() > deadline) {
+                throw new AssertionError("The thread hasn't started waiting in time!");
+            }
+            Thread.sleep(1);
+        }
+    }
+
+    // Start a thread entering a group of the protocole and wait until it
+    // waits there. The thread logs the group once it gets in.
+    private static Thread parkedEntry(CubeProtocole protocole, int group, List<Integer> log)
+        throws InterruptedException {
+        Thread t = new Thread(() -> {
+            try {
+                protocole.rotateEntry(group);
+                log.add(group);
+                protocole.rotateExit(group);
+            } catch (InterruptedException e) {
+            }
+        });
+        t.start();
+        awaitWaiting(t);
+        return t;
+    }
+
+    // A thread waits with the same waiter every time: one interrupted out of
+    // a queue must still queue up and get in properly afterwards.
+    @Test
+    public void waiterReusedAfterInterruption() {
+        AtomicProtocole protocole = new AtomicProtocole();
+        AtomicInteger entered = new AtomicInteger(0);
+        CountDownLatch interrupted = new CountDownLatch(1);
+        Thread t = new Thread(() -> {
+            try {
+                protocole.rotateEntry(0);
+                throw new AssertionError("Got past the show!");
+            } catch (InterruptedException e) {
+                interrupted.countDown();
+            }
+            try {
+                for (int i = 0; i < 3; ++i) {
+                    protocole.rotateEntry(i);
+                    entered.incrementAndGet();
+                    protocole.rotateExit(i);
+                }
+            } catch (InterruptedException e) {
+            }
+        });
+
+        try {
+            protocole.showEntry();
+            try {
+                t.start();
+                awaitWaiting(t);
+                t.interrupt();
+                if (!interrupted.await(10, TimeUnit.SECONDS)) {
+                    throw new AssertionError("The interrupted thread hasn't left!");
+                }
+                awaitWaiting(t);
+                if (entered.get() != 0) {
+                    throw new AssertionError("Got past the show!");
+                }
+            } finally {
+                protocole.showExit();
+            }
+        } catch (InterruptedException e) {
+            throw new AssertionError("Unexpected interruption!");
+        }
+        joinAll(List.of(t), 10000);
+        if (entered.get() != 3) {
+            throw new AssertionError("Expected 3 entries, got " + entered.get());
+        }
+    }
+
+    // A group whose waiters have all been interrupted must not keep the time
+    // of the first of them: a later waiter of it goes after the groups that
+    // have been waiting longer.
+    private static void checkDeadlineAfterInterruption(CubeProtocole protocole) {
+        List<Integer> log = Collections.synchronizedList(new ArrayList<>());
+        List<Thread> threads = new ArrayList<>();
+        try {
+            protocole.showEntry();
+            try {
+                Thread interrupted = parkedEntry(protocole, 1, log);
+                interrupted.interrupt();
+                interrupted.join(10000);
+                Thread.sleep(2);
+                threads.add(parkedEntry(protocole, 2, log));
+                Thread.sleep(2);
+                threads.add(parkedEntry(protocole, 1, log));
+            } finally {
+                protocole.showExit();
+            }
+        } catch (InterruptedException e) {
+            throw new AssertionError("Unexpected interruption!");
+        }
+        joinAll(threads, 10000);
+
+        if (!log.equals(List.of(2, 1))) {
+            throw new AssertionError("Groups got in out of order: " + log);
+        }
+    }
+
+    // Concurrent rotations synchronised by other protocoles must also leave the
+    // cube as if they were done one after another in the order they finished.
+    private void checkProtocoleEquivalentSequential(CubeProtocole protocole) {
+        int size = 10;
+        List<Rotation> rotations = Collections.synchronizedList(new ArrayList<>());
+        Cube cube = new Cube(new ArrayCubeStorage(size), protocole,
+                             (x, y) -> {
+        }, (x, y) -> {
+            rotations.add(new Rotation(x, y));
+        }, () -> {
+        }, () -> {
+        });
+
+        List<Thread> threads = aleatoryRotorsShowers(100, 0, cube, size, 50);
+        threads.forEach(Thread::start);
+        joinAll(threads, 20000);
+
+        ReferenceCube reference = new ReferenceCube(size);
+        rotations.forEach(r -> reference.rotate(r.getSide(), r.getLayer()));
+        try {
+            if (!reference.show().equals(cube.show())) {
+                throw new AssertionError(
+                        "The concurrently changed cube and sequentialy" +
+                        " changed one should be identical!");
+            }
+        } catch (InterruptedException e) {
+            throw new AssertionError("Unexpected interruption!");
+        }
+    }
+
+    @Test
+    public void atomicProtocoleEquivalentSequential() {
+        checkProtocoleEquivalentSequential(new AtomicProtocole());
+    }
+
+    @Test
+    public void conditionProtocoleEquivalentSequential() {
+        checkProtocoleEquivalentSequential(new ConditionProtocole());
+    }
+
+    // Interrupted waiters must not leave a protocole in a state where later
+    // operations hang.
+    private void checkProtocoleInterruptions(CubeProtocole protocole) {
+        int size = 10;
+        Cube cube = new Cube(new ArrayCubeStorage(size), protocole,
+                             (x, y) -> {
+            try {
+                Thread.sleep(5);
+            } catch (InterruptedException ingored) {
+            }
+        }, (x, y) -> {
+        }, () -> {
+        }, () -> {
+        });
+
+        List<Thread> threads = aleatoryRotorsShowers(100, 0.2, cube, size, 5);
+        threads.forEach(Thread::start);
+
+        Random r = new Random();
+        for (int i = 0; i < threads.size(); i += r.nextInt(5) + 1) {
+            threads.get(i).interrupt();
+        }
+        joinAll(threads, 20000);
+
+        List<Thread> after = aleatoryRotorsShowers(10, 0.5, cube, size, 5);
+        after.forEach(Thread::start);
+        joinAll(after, 5000);
+
+        assertCorrectCube(cube);
+    }
+
+    @Test
+    public void atomicProtocoleInterruptions() {
+        checkProtocoleInterruptions(new AtomicProtocole());
+    }
+
+    @Test
+    public void conditionProtocoleInterruptions() {
+        checkProtocoleInterruptions(new ConditionProtocole());
+    }
+
+    // An instrumented cube must count every admission and switch, leave
+    // nobody counted as waiting afterwards and show it all through JMX.
+    @Test
+    public void instrumentedStats() throws JMException {
+        int size = 10;
+        AtomicInteger rotations = new AtomicInteger();
+        AtomicInteger shows = new AtomicInteger();
+        List<String> log = Collections.synchronizedList(new ArrayList<>());
+        InstrumentedProtocole protocole = new InstrumentedProtocole(new AtomicProtocole());
+        Cube cube = new Cube(new ArrayCubeStorage(size), protocole, (x, y) -> {
+            log.add("i" + ax(x));
+        }, (x, y) -> {
+            rotations.incrementAndGet();
+            log.add("o" + ax(x));
+        }, () -> {
+            log.add("iS");
+        }, () -> {
+            shows.incrementAndGet();
+            log.add("oS");
+        });
+
+        List<Thread> threads = aleatoryRotorsShowers(50, 0.3, cube, size, 20);
+        threads.forEach(Thread::start);
+        joinAll(threads, 20000);
+        assertWellSynchronised(log);
+
+        CubeStats stats = cube.stats();
+        long admitted = 0;
+        for (int ax = 0; ax < 3; ++ax) {
+            admitted += stats.getRotateWait(ax).getCount();
+        }
+        if (admitted != rotations.get() || stats.getShowWait().getCount() != shows.get()) {
+            throw new AssertionError("Admissions miscounted: " + stats);
+        }
+        if (stats.getWaitingRotations() != 0 || stats.getWaitingShows() != 0) {
+            throw new AssertionError("Nobody should be waiting: " + stats);
+        }
+        if (stats.getGroupSwitches() == 0) {
+            throw new AssertionError("Mixed operations must switch groups: " + stats);
+        }
+
+        String name = "concurrentcube:type=Cube,name=instrumentedStats";
+        protocole.registerMBean(name);
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        try {
+            CompositeData attribute = (CompositeData) server.getAttribute(
+                new ObjectName(name), "Stats");
+            if ((Long) attribute.get("groupSwitches") < stats.getGroupSwitches()) {
+                throw new AssertionError("JMX shows other stats than the cube!");
+            }
+        } finally {
+            server.unregisterMBean(new ObjectName(name));
+        }
+
+        try {
+            plainCube(size).stats();
+            throw new AssertionError("A plain cube has no stats!");
+        } catch (IllegalStateException expected) {
+        }
+    }
+
+    // A random sequence of moves where moves around the same axis tend to come
+    // in runs. Returns the sides, the layers are filled in the given array.
+    private static int[] randomMoves(Random r, int size, int[] layers) {
+        int[] sides = new int[layers.length];
+        int ax = 0;
+        for (int i = 0; i < sides.length; ++i) {
+            if (r.nextInt(4) == 0) {
+                ax = r.nextInt(3);
+            }
+            sides[i] = r.nextBoolean() ? ax : new int[] { 5, 3, 4 }[ax];
+            layers[i] = r.nextInt(size);
+        }
+        return sides;
+    }
+
+    // A batch of rotations has to give the same cube as the rotations done
+    // one by one, with the callbacks called for every move.
+    private void checkRotateAllMatchesReference(boolean coalescing) {
+        int size = 6;
+        Random r = new Random(1410);
+        List<Rotation> rotations = new ArrayList<>();
+        int[] before = { 0 };
+        Cube cube = new Cube(size, (x, y) -> {
+            ++before[0];
+        }, (x, y) -> {
+            rotations.add(new Rotation(x, y));
+        }, () -> {
+        }, () -> {
+        });
+        cube.setCoalescing(coalescing);
+        ReferenceCube reference = new ReferenceCube(size);
+
+        try {
+            for (int batch = 0; batch < 50; ++batch) {
+                int[] layers = new int[r.nextInt(40)];
+                int[] sides = randomMoves(r, size, layers);
+                cube.rotateAll(sides, layers);
+                for (int i = 0; i < sides.length; ++i) {
+                    reference.rotate(sides[i], layers[i]);
+                    Rotation logged = rotations.get(rotations.size() - sides.length + i);
+                    if (logged.getSide() != sides[i] || logged.getLayer() != layers[i]) {
+                        throw new AssertionError("Moves reported out of order!");
+                    }
+                }
+                if (before[0] != rotations.size()) {
+                    throw new AssertionError("Unbalanced rotation callbacks!");
+                }
+                if (!cube.show().equals(reference.show())) {
+                    throw new AssertionError("Batch " + batch + " differs from the reference!");
+                }
+            }
+        } catch (InterruptedException e) {
+            throw new AssertionError("Unexpected interruption!");
+        }
+    }
+
+    @Test
+    public void rotateAllMatchesReference() {
+        checkRotateAllMatchesReference(false);
+    }
+
+    @Test
+    public void coalescedRotateAllMatchesReference() {
+        checkRotateAllMatchesReference(true);
+    }
+
+    // Half and anticlockwise turns done in one go must give the same cube as
+    // that many quarter turns, with the callbacks called for each of them.
+    @Test
+    public void quarterTurnsMatchReference() {
+        int size = 5;
+        Random r = new Random(1683);
+        int[] before = { 0 };
+        int[] after = { 0 };
+        Cube cube = new Cube(size, (x, y) -> {
+            ++before[0];
+        }, (x, y) -> {
+            ++after[0];
+        }, () -> {
+        }, () -> {
+        });
+        ReferenceCube reference = new ReferenceCube(size);
+
+        try {
+            int quarters = 0;
+            for (int i = 0; i < 500; ++i) {
+                int side = r.nextInt(6);
+                int layer = r.nextInt(size);
+                int quarterTurns = r.nextInt(6) - 1;
+                cube.rotate(side, layer, quarterTurns);
+                for (int q = 0; q < Math.floorMod(quarterTurns, 4); ++q) {
+                    reference.rotate(side, layer);
+                    ++quarters;
+                }
+                if (before[0] != quarters || after[0] != quarters) {
+                    throw new AssertionError("Expected " + quarters + " rotation callbacks!");
+                }
+                if (!cube.show().equals(reference.show())) {
+                    throw new AssertionError("Move " + i + " differs from the reference!");
+                }
+            }
+        } catch (InterruptedException e) {
+            throw new AssertionError("Unexpected interruption!");
+        }
+    }
+
+    // Kernels split across a pool must move the squares exactly like the
+    // serial ones, turns of faces and 'normalize()' included.
+    @Test
+    public void parallelKernelsMatchSerial() {
+        int size = 1100;
+        Random r = new Random(966);
+        Cube serial = plainCube(size);
+        Cube parallel = plainCube(size);
+        ForkJoinPool pool = new ForkJoinPool(4);
+        parallel.setParallelKernels(pool, size);
+
+        try {
+            for (int i = 0; i < 40; ++i) {
+                int side = r.nextInt(6);
+                int layer = r.nextInt(4) == 0 ? 0 : r.nextInt(size);
+                int quarterTurns = r.nextInt(3) + 1;
+                serial.rotate(side, layer, quarterTurns);
+                parallel.rotate(side, layer, quarterTurns);
+            }
+            if (!serial.show().equals(parallel.show())) {
+                throw new AssertionError("Parallel kernels differ from the serial ones!");
+            }
+            serial.normalize();
+            parallel.normalize();
+            if (!serial.show().equals(parallel.show())) {
+                throw new AssertionError("Parallel normalize differs from the serial one!");
+            }
+        } catch (InterruptedException e) {
+            throw new AssertionError("Unexpected interruption!");
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    // A range of layers turned together must give the same cube as the layers
+    // turned one by one, with the callbacks called per layer or per range.
+    private void checkRotateRangeMatchesReference(boolean once) {
+        // Big enough for the sweep to go in more than one block.
+        int size = 70;
+        Random r = new Random(1569);
+        List<Rotation> rotations = new ArrayList<>();
+        Cube cube = new Cube(size, (x, y) -> {
+        }, (x, y) -> {
+            rotations.add(new Rotation(x, y));
+        }, () -> {
+        }, () -> {
+        });
+        cube.setReportRangesOnce(once);
+        ReferenceCube reference = new ReferenceCube(size);
+
+        try {
+            for (int i = 0; i < 100; ++i) {
+                int side = r.nextInt(6);
+                int fromLayer = r.nextInt(size);
+                int toLayer = fromLayer + r.nextInt(size - fromLayer);
+                int reported = rotations.size();
+                cube.rotateRange(side, fromLayer, toLayer);
+                for (int layer = fromLayer; layer <= toLayer; ++layer) {
+                    reference.rotate(side, layer);
+                }
+                int expected = once ? 1 : toLayer - fromLayer + 1;
+                if (rotations.size() - reported != expected
+                    || rotations.get(reported).getLayer() != fromLayer) {
+                    throw new AssertionError("Range " + i + " reported wrongly!");
+                }
+                if (!cube.show().equals(reference.show())) {
+                    throw new AssertionError("Range " + i + " differs from the reference!");
+                }
+            }
+        } catch (InterruptedException e) {
+            throw new AssertionError("Unexpected interruption!");
+        }
+    }
+
+    @Test
+    public void rotateRangeMatchesReference() {
+        checkRotateRangeMatchesReference(false);
+    }
+
+    @Test
+    public void rotateRangeReportedOnce() {
+        checkRotateRangeMatchesReference(true);
+    }
+
+    // Moves that cancel out leave the cube as it was but are still reported.
+    @Test
+    public void coalescedMovesCancelOut() {
+        int size = 5;
+        int[] after = { 0 };
+        Cube cube = new Cube(size, (x, y) -> {
+        }, (x, y) -> {
+            ++after[0];
+        }, () -> {
+        }, () -> {
+        });
+        cube.setCoalescing(true);
+
+        try {
+            cube.rotate(1, 2);
+            String start = cube.show();
+            cube.rotateAll(new int[] { 0, 0, 0, 0, 2, 4, 5, 0 },
+                           new int[] { 1, 1, 1, 1, 0, size - 1, size - 2, 1 });
+            if (!cube.show().equals(start)) {
+                throw new AssertionError("Cancelling moves have changed the cube!");
+            }
+            if (after[0] != 9) {
+                throw new AssertionError("Expected 9 reported moves, got " + after[0]);
+            }
+        } catch (InterruptedException e) {
+            throw new AssertionError("Unexpected interruption!");
+        }
+    }
+
+    // Batches done concurrently with other batches and shows must be well
+    // synchronised and equivalent to their moves done in the logged order.
+    @Test
+    public void concurrentRotateAll() {
+        int size = 8;
+        List<String> log = Collections.synchronizedList(new ArrayList<>());
+        List<Rotation> rotations = Collections.synchronizedList(new ArrayList<>());
+        Cube cube = new Cube(new ArrayCubeStorage(size), new AtomicProtocole(),
+                             (x, y) -> {
+            log.add("i" + ax(x));
+        }, (x, y) -> {
+            rotations.add(new Rotation(x, y));
+            log.add("o" + ax(x));
+        }, () -> {
+            log.add("iS");
+        }, () -> {
+            log.add("oS");
+        });
+
+        List<Thread> threads = new ArrayList<>();
+        for (int t = 0; t < 20; ++t) {
+            final int seed = t;
+            threads.add(new Thread(() -> {
+                Random r = new Random(seed);
+                try {
+                    for (int i = 0; i < 20; ++i) {
+                        int[] layers = new int[r.nextInt(30)];
+                        cube.rotateAll(randomMoves(r, size, layers), layers);
+                        cube.show();
+                    }
+                } catch (InterruptedException e) {
+                }
+            }));
+        }
+        threads.forEach(Thread::start);
+        joinAll(threads, 20000);
+
+        assertWellSynchronised(log);
+        ReferenceCube reference = new ReferenceCube(size);
+        rotations.forEach(r -> reference.rotate(r.getSide(), r.getLayer()));
+        try {
+            if (!reference.show().equals(cube.show())) {
+                throw new AssertionError("Batches are not equivalent to their moves!");
+            }
+        } catch (InterruptedException e) {
+            throw new AssertionError("Unexpected interruption!");
+        }
+    }
+
+    // Asynchronous rotations and shows from a scheduler, mixed with blocking
+    // ones of other threads, must be well synchronised and equivalent to their
+    // moves done in the logged order.
+    @Test
+    public void asyncOperations() {
+        int size = 8;
+        List<String> log = Collections.synchronizedList(new ArrayList<>());
+        List<Rotation> rotations = Collections.synchronizedList(new ArrayList<>());
+        Cube cube = new Cube(size, (x, y) -> {
+            log.add("i" + ax(x));
+        }, (x, y) -> {
+            rotations.add(new Rotation(x, y));
+            log.add("o" + ax(x));
+        }, () -> {
+            log.add("iS");
+        }, () -> {
+            log.add("oS");
+        });
+
+        ExecutorService workers = Executors.newFixedThreadPool(8);
+        CubeScheduler scheduler = new CubeScheduler(cube, workers);
+        List<Thread> threads = aleatoryRotorsShowers(10, 0.3, cube, size, 20);
+        threads.forEach(Thread::start);
+
+        Random r = new Random(2137);
+        List<CompletableFuture<?>> futures = new ArrayList<>();
+        for (int i = 0; i < 2000; ++i) {
+            if (r.nextInt(10) == 0) {
+                futures.add(scheduler.showAsync());
+            } else {
+                futures.add(scheduler.rotateAsync(r.nextInt(6), r.nextInt(size)));
+            }
+        }
+
+        try {
+            CompletableFuture.allOf(futures.toArray(new CompletableFuture<?>[0]))
+                .get(20, TimeUnit.SECONDS);
+        } catch (InterruptedException | ExecutionException | TimeoutException e) {
+            throw new AssertionError("Asynchronous operations have failed: " + e);
+        } finally {
+            workers.shutdownNow();
+        }
+        joinAll(threads, 20000);
+
+        assertWellSynchronised(log);
+        ReferenceCube reference = new ReferenceCube(size);
+        rotations.forEach(x -> reference.rotate(x.getSide(), x.getLayer()));
+        try {
+            if (!reference.show().equals(cube.showAsync().get(20, TimeUnit.SECONDS))) {
+                throw new AssertionError("Asynchronous rotations are not equivalent to" +
+                                         " their moves!");
+            }
+        } catch (InterruptedException | ExecutionException | TimeoutException e) {
+            throw new AssertionError("Unexpected failure: " + e);
+        }
+    }
+
+    // A callback throwing must fail its asynchronous operation only: the cube
+    // has to let everybody else in afterwards.
+    @Test
+    public void asyncFailingCallback() {
+        int size = 3;
+        Cube cube = new Cube(size, (x, y) -> {
+            if (x == 1 && y == 2) {
+                throw new IllegalStateException("Failing callback!");
+            }
+        }, (x, y) -> {
+        }, () -> {
+        }, () -> {
+        });
+
+        ExecutorService workers = Executors.newFixedThreadPool(2);
+        CubeScheduler scheduler = new CubeScheduler(cube, workers);
+        try {
+            try {
+                scheduler.rotateAsync(1, 2).get(10, TimeUnit.SECONDS);
+                throw new AssertionError("The failing rotation has completed!");
+            } catch (ExecutionException e) {
+                if (!(e.getCause() instanceof IllegalStateException)) {
+                    throw new AssertionError("Unexpected failure: " + e.getCause());
+                }
+            }
+
+            String solved = new ReferenceCube(size).show();
+            if (!solved.equals(scheduler.showAsync().get(10, TimeUnit.SECONDS))) {
+                throw new AssertionError("The failing rotation has moved the cube!");
+            }
+
+            List<CompletableFuture<?>> futures = new ArrayList<>();
+            for (int side = 0; side < 6; ++side) {
+                futures.add(scheduler.rotateAsync(side, 0));
+                futures.add(scheduler.showAsync());
+            }
+            CompletableFuture.allOf(futures.toArray(new CompletableFuture<?>[0]))
+                .get(10, TimeUnit.SECONDS);
+        } catch (TimeoutException e) {
+            throw new AssertionError("A failing callback has wedged the cube!");
+        } catch (InterruptedException | ExecutionException e) {
+            throw new AssertionError("Unexpected failure: " + e);
+        } finally {
+            workers.shutdownNow();
+        }
+    }
+
+    // Asynchronous operations blocked on the common pool must not take all of
+    // its workers: more cubes than the pool has workers wait in a callback for
+    // a task of the pool which must still get to run.
+    @Test
+    public void asyncOnCommonPool() {
+        int nrCubes = ForkJoinPool.getCommonPoolParallelism() + 1;
+        CountDownLatch released = new CountDownLatch(1);
+        List<CompletableFuture<?>> futures = new ArrayList<>();
+        for (int c = 0; c < nrCubes; ++c) {
+            Cube cube = new Cube(2, (x, y) -> {
+                try {
+                    released.await(10, TimeUnit.SECONDS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }, (x, y) -> {
+            }, () -> {
+            }, () -> {
+            });
+            futures.add(cube.rotateAsync(0, 0));
+        }
+
+        try {
+            CompletableFuture.runAsync(released::countDown, ForkJoinPool.commonPool())
+                .get(5, TimeUnit.SECONDS);
+            CompletableFuture.allOf(futures.toArray(new CompletableFuture<?>[0]))
+                .get(20, TimeUnit.SECONDS);
+        } catch (TimeoutException e) {
+            throw new AssertionError("Blocked operations have starved the common pool!");
+        } catch (InterruptedException | ExecutionException e) {
+            throw new AssertionError("Unexpected failure: " + e);
+        } finally {
+            released.countDown();
+        }
+    }
+
+    // Many cubes of a registry sharing a small pool must all get their
+    // operations done, each of them as if its moves were done in the order
+    // it logged them.
+    @Test
+    public void registryOfCubes() {
+        int size = 4;
+        int nrCubes = 300;
+        ExecutorService workers = Executors.newFixedThreadPool(4);
+        CubeRegistry registry = new CubeRegistry(workers);
+        List<List<Rotation>> rotations = new ArrayList<>();
+        for (int c = 0; c < nrCubes; ++c) {
+            List<Rotation> log = Collections.synchronizedList(new ArrayList<>());
+            rotations.add(log);
+            registry.register("cube" + c, new Cube(size, (x, y) -> {
+            }, (x, y) -> {
+                log.add(new Rotation(x, y));
+            }, () -> {
+            }, () -> {
+            }));
+        }
+        registry.create("plain", size);
+
+        Random r = new Random(1918);
+        List<CompletableFuture<?>> futures = new ArrayList<>();
+        for (int i = 0; i < 20000; ++i) {
+            String id = "cube" + r.nextInt(nrCubes);
+            if (r.nextInt(10) == 0) {
+                futures.add(registry.showAsync(id));
+            } else {
+                futures.add(registry.rotateAsync(id, r.nextInt(6), r.nextInt(size)));
+            }
+            futures.add(registry.rotateAsync("plain", r.nextInt(6), r.nextInt(size)));
+        }
+
+        try {
+            CompletableFuture.allOf(futures.toArray(new CompletableFuture<?>[0]))
+                .get(20, TimeUnit.SECONDS);
+            for (int c = 0; c < nrCubes; ++c) {
+                ReferenceCube reference = new ReferenceCube(size);
+                rotations.get(c).forEach(x -> reference.rotate(x.getSide(), x.getLayer()));
+                if (!reference.show().equals(registry.get("cube" + c).show())) {
+                    throw new AssertionError("Cube " + c + " differs from its moves!");
+                }
+            }
+            assertCorrectCube(registry.remove("plain"));
+        } catch (InterruptedException | ExecutionException | TimeoutException e) {
+            throw new AssertionError("Registry operations have failed: " + e);
+        } finally {
+            workers.shutdownNow();
+        }
+
+        if (registry.size() != nrCubes || registry.get("plain") != null) {
+            throw new AssertionError("The registry has lost count of its cubes!");
+        }
+    }
+
+    // Single rotations, batches and ranges with layers locked by other locks
+    // must never share a layer and must stay equivalent to their moves done
+    // in the logged order.
+    private void checkLayerLocks(LayerLocks locks, int size) {
+        AtomicIntegerArray inside = new AtomicIntegerArray(size);
+        List<String> log = Collections.synchronizedList(new ArrayList<>());
+        List<Rotation> rotations = Collections.synchronizedList(new ArrayList<>());
+        Cube cube = new Cube(new ArrayCubeStorage(size), new AtomicProtocole(), locks,
+                             (x, y) -> {
+            if (inside.getAndIncrement(CubeGeometry.axisLayer(size, x, y)) != 0) {
+                throw new AssertionError("Two rotations of one layer at once!");
+            }
+            log.add("i" + ax(x));
+        }, (x, y) -> {
+            inside.decrementAndGet(CubeGeometry.axisLayer(size, x, y));
+            rotations.add(new Rotation(x, y));
+            log.add("o" + ax(x));
+        }, () -> {
+            log.add("iS");
+        }, () -> {
+            log.add("oS");
+        });
+
+        List<Thread> threads = new ArrayList<>();
+        for (int t = 0; t < 16; ++t) {
+            final int seed = t;
+            threads.add(new Thread(() -> {
+                Random r = new Random(seed);
+                try {
+                    for (int i = 0; i < 50; ++i) {
+                        switch (r.nextInt(4)) {
+
+                        case 0:
+                            int[] layers = new int[r.nextInt(10)];
+                            cube.rotateAll(randomMoves(r, size, layers), layers);
+                            break;
+                        case 1:
+                            int from = r.nextInt(size);
+                            cube.rotateRange(r.nextInt(6), from, from + r.nextInt(size - from));
+                            break;
+                        case 2:
+                            cube.show();
+                            break;
+                        default:
+                            cube.rotate(r.nextInt(6), r.nextInt(size));
+                        }
+                    }
+                } catch (InterruptedException e) {
+                }
+            }));
+        }
+        threads.forEach(Thread::start);
+        joinAll(threads, 20000);
+
+        assertWellSynchronised(log);
+        ReferenceCube reference = new ReferenceCube(size);
+        rotations.forEach(x -> reference.rotate(x.getSide(), x.getLayer()));
+        try {
+            if (!reference.show().equals(cube.show())) {
+                throw new AssertionError("Rotations are not equivalent to their moves!");
+            }
+        } catch (InterruptedException e) {
+            throw new AssertionError("Unexpected interruption!");
+        }
+    }
+
+    @Test
+    public void stripedLayerLocks() {
+        checkLayerLocks(new StripedLayerLocks(3), 8);
+        checkLayerLocks(new StripedLayerLocks(64), 8);
+    }
+
+    @Test
+    public void bitmapLayerLocks() {
+        checkLayerLocks(new BitmapLayerLocks(8), 8);
+        // Ranges over more than one word of the bitmap.
+        checkLayerLocks(new BitmapLayerLocks(150), 150);
+    }
+
+    // A cube recovered from its journal is the one that has been journaled,
+    // with moves from before and after a checkpoint, and a record torn at the
+    // end of the log is ignored.
+    @Test
+    public void journalRecovers() throws IOException {
+        int size = 6;
+        Path dir = Files.createTempDirectory("journal");
+        Random r = new Random(2021);
+        try {
+            Cube cube = new Cube(size, (x, y) -> {
+            }, (x, y) -> {
+            }, () -> {
+            }, () -> {
+            });
+            String expected;
+            try (CubeJournal journal = CubeJournal.open(dir, size, 5, false, 0)) {
+                journal.recover(cube);
+                for (int round = 0; round < 2; ++round) {
+                    for (int i = 0; i < 300; ++i) {
+                        int side = r.nextInt(6);
+                        switch (r.nextInt(4)) {
+                        case 0:
+                            cube.rotate(side, r.nextInt(size));
+                            break;
+                        case 1:
+                            cube.rotate(side, r.nextInt(size), r.nextInt(7) - 3);
+                            break;
+                        case 2:
+                            int from = r.nextInt(size);
+                            cube.rotateRange(side, from, from + r.nextInt(size - from));
+                            break;
+                        default:
+                            cube.setCoalescing(r.nextBoolean());
+                            cube.rotateAll(new int[] { side, side, side },
+                                           new int[] { 0, 1, 0 });
+                        }
+                    }
+                    if (round == 0) {
+                        journal.checkpoint();
+                    }
+                }
+                expected = cube.show();
+            }
+
+            try (DirectoryStream<Path> files = Files.newDirectoryStream(dir, "log.*")) {
+                for (Path file : files) {
+                    Files.write(file, new byte[] { 1, 2, 3 }, StandardOpenOption.APPEND);
+                }
+            }
+
+            Cube recovered = new Cube(size, (x, y) -> {
+            }, (x, y) -> {
+            }, () -> {
+            }, () -> {
+            });
+            try (CubeJournal journal = CubeJournal.open(dir, size)) {
+                journal.recover(recovered);
+                if (!expected.equals(recovered.show())) {
+                    throw new AssertionError("Recovered cube differs from the journaled one!");
+                }
+            }
+        } catch (InterruptedException e) {
+            throw new AssertionError("Unexpected interruption!");
+        } finally {
+            try (DirectoryStream<Path> files = Files.newDirectoryStream(dir)) {
+                for (Path file : files) {
+                    Files.delete(file);
+                }
+            }
+            Files.delete(dir);
+        }
+    }
+
+    // Checkpoints taken by the flusher and by other threads at the same time
+    // as rotations go on never lose a move.
+    @Test
+    public void journalConcurrentCheckpoints() throws IOException {
+        int size = 5;
+        Path dir = Files.createTempDirectory("journal");
+        try {
+            Cube cube = plainCube(size);
+            String expected;
+            try (CubeJournal journal = CubeJournal.open(dir, size, 1, false, 20)) {
+                journal.recover(cube);
+                List<Thread> threads = new ArrayList<>();
+                for (int t = 0; t < 3; ++t) {
+                    threads.add(new Thread(() -> {
+                        ThreadLocalRandom r = ThreadLocalRandom.current();
+                        try {
+                            for (int i = 0; i < 2000; ++i) {
+                                cube.rotate(r.nextInt(6), r.nextInt(size));
+                            }
+                        } catch (InterruptedException e) {
+                        }
+                    }));
+                }
+                for (int t = 0; t < 2; ++t) {
+                    threads.add(new Thread(() -> {
+                        try {
+                            for (int i = 0; i < 50; ++i) {
+                                journal.checkpoint();
+                            }
+                        } catch (IOException | InterruptedException e) {
+                            throw new AssertionError("Checkpoint failed: " + e);
+                        }
+                    }));
+                }
+                threads.forEach(Thread::start);
+                joinAll(threads, 30000);
+                expected = cube.show();
+            }
+
+            Cube recovered = plainCube(size);
+            try (CubeJournal journal = CubeJournal.open(dir, size)) {
+                journal.recover(recovered);
+                if (!expected.equals(recovered.show())) {
+                    throw new AssertionError("Moves have been lost by checkpoints!");
+                }
+            }
+        } catch (InterruptedException e) {
+            throw new AssertionError("Unexpected interruption!");
+        } finally {
+            try (DirectoryStream<Path> files = Files.newDirectoryStream(dir)) {
+                for (Path file : files) {
+                    Files.delete(file);
+                }
+            }
+            Files.delete(dir);
+        }
+    }
+
+    // Cubes encoded in the binary format, with and without compression, from
+    // the cube itself and from a snapshot, decode to the same cube. A solved
+    // cube compresses to a few bytes a face.
+    @Test
+    public void codecRoundTrip() throws IOException {
+        Random r = new Random(22);
+        try {
+            for (int size : new int[] { 1, 2, 5, 40, 300 }) {
+                for (int moves : new int[] { 0, 3, 1000 }) {
+                    Cube cube = new Cube(size, (x, y) -> {
+                    }, (x, y) -> {
+                    }, () -> {
+                    }, () -> {
+                    });
+                    for (int i = 0; i < moves; ++i) {
+                        cube.rotate(r.nextInt(6), r.nextInt(size));
+                    }
+                    String expected = cube.show();
+
+                    for (boolean compress : new boolean[] { false, true }) {
+                        ByteArrayOutputStream out = new ByteArrayOutputStream();
+                        cube.encode(out, compress);
+                        byte[] encoded = out.toByteArray();
+                        if (encoded.length > 9 + 6 * (1 + (3 * size * size + 7) / 8)) {
+                            throw new AssertionError("The encoded cube is too long!");
+                        }
+                        if (compress && moves == 0 && encoded.length != 9 + 6 * 2) {
+                            throw new AssertionError("A solved cube has not been compressed!");
+                        }
+                        Cube decoded = Cube.decode(new ByteArrayInputStream(encoded),
+                                                   (x, y) -> {
+                        }, (x, y) -> {
+                        }, () -> {
+                        }, () -> {
+                        });
+                        if (!expected.equals(decoded.show())) {
+                            throw new AssertionError("Decoded cube of size " + size
+                                                     + " differs from the encoded one!");
+                        }
+
+                        out.reset();
+                        CubeCodec.encode(cube.snapshot(), out, compress);
+                        if (!Arrays.equals(encoded, out.toByteArray())) {
+                            throw new AssertionError("The snapshot is encoded differently!");
+                        }
+                    }
+                }
+            }
+        } catch (InterruptedException e) {
+            throw new AssertionError("Unexpected interruption!");
+        }
+
+        byte[] corrupt = { 0x43, 0x55, 0x42, 0x43, 1, 0, 0, 0, 2, 0, 7 };
+        try {
+            CubeCodec.decode(new ByteArrayInputStream(corrupt));
+            throw new AssertionError("A corrupt cube has been decoded!");
+        } catch (IOException e) {
+        }
+    }
+
+    // Cubes written one after another on a stream, followed by other data, are
+    // read back one by one: decoding one takes nothing of the next.
+    @Test
+    public void codecBackToBack() throws IOException {
+        int[] sizes = { 3, 40, 300, 1, 17 };
+        Random r = new Random(2022);
+        List<String> expected = new ArrayList<>();
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try {
+            for (int c = 0; c < sizes.length; ++c) {
+                Cube cube = plainCube(sizes[c]);
+                for (int i = 0; i < 5 * c; ++i) {
+                    cube.rotate(r.nextInt(6), r.nextInt(sizes[c]));
+                }
+                expected.add(cube.show());
+                cube.encode(out, c % 2 == 0);
+            }
+        } catch (InterruptedException e) {
+            throw new AssertionError("Unexpected interruption!");
+        }
+        byte[] trailer = "more data".getBytes(StandardCharsets.US_ASCII);
+        out.write(trailer);
+
+        ByteArrayInputStream in = new ByteArrayInputStream(out.toByteArray());
+        for (int c = 0; c < sizes.length; ++c) {
+            CubeStorage storage = CubeCodec.decode(in);
+            byte[] squares = new byte[6 * sizes[c] * sizes[c]];
+            storage.read(0, squares, 0, squares.length);
+            for (int i = 0; i < squares.length; ++i) {
+                squares[i] += '0';
+            }
+            if (!expected.get(c).equals(new String(squares, StandardCharsets.US_ASCII))) {
+                throw new AssertionError("Cube " + c + " of the stream differs from the"
+                                         + " encoded one!");
+            }
+        }
+        if (!Arrays.equals(trailer, in.readAllBytes())) {
+            throw new AssertionError("Decoding has taken data after the cubes!");
+        }
+    }
+
+    // An algorithm applied as a compiled permutation leaves the cube just like
+    // its moves done one by one, callbacks included, whatever the cube has
+    // been through before.
+    @Test
+    public void permutationMatchesRotations() {
+        Random r = new Random(23);
+        try {
+            for (int size : new int[] { 1, 2, 3, 4, 7 }) {
+                int[] sides = new int[50];
+                int[] layers = new int[50];
+                for (int k = 0; k < sides.length; ++k) {
+                    sides[k] = r.nextInt(6);
+                    layers[k] = r.nextInt(size);
+                }
+                CubePermutation permutation = CubePermutation.compile(size, sides, layers);
+
+                List<String> expected = new ArrayList<>();
+                List<String> applied = new ArrayList<>();
+                Cube cube = new Cube(size, (x, y) -> {
+                }, (x, y) -> {
+                    expected.add(x + " " + y);
+                }, () -> {
+                }, () -> {
+                });
+                Cube compiled = new Cube(size, (x, y) -> {
+                }, (x, y) -> {
+                    applied.add(x + " " + y);
+                }, () -> {
+                }, () -> {
+                });
+                for (int i = 0; i < 20; ++i) {
+                    int side = r.nextInt(6);
+                    int layer = r.nextInt(size);
+                    cube.rotate(side, layer);
+                    compiled.rotate(side, layer);
+                }
+
+                byte[] squares = cube.show().getBytes(StandardCharsets.US_ASCII);
+                cube.rotateAll(sides, layers);
+                compiled.apply(permutation);
+                if (!cube.show().equals(compiled.show())) {
+                    throw new AssertionError("The permutation differs from its moves for size "
+                                             + size + "!");
+                }
+                if (!expected.equals(applied)) {
+                    throw new AssertionError("The permutation reported other moves!");
+                }
+
+                permutation.apply(squares, 0);
+                if (!cube.show().equals(new String(squares, StandardCharsets.US_ASCII))) {
+                    throw new AssertionError("The permuted squares differ from the cube!");
+                }
+
+                CubePermutation twice = permutation.then(permutation);
+                compiled.apply(twice);
+                cube.rotateAll(sides, layers);
+                cube.rotateAll(sides, layers);
+                if (!cube.show().equals(compiled.show()) || twice.moves() != 100) {
+                    throw new AssertionError("A composed permutation differs from its moves!");
+                }
+            }
+        } catch (InterruptedException e) {
+            throw new AssertionError("Unexpected interruption!");
+        }
+    }
+
+    // The kernels the cubes have picked (vector ones if they are there) do the
+    // same as the plain loops, for lengths around the vector sizes too.
+    @Test
+    public void kernelsMatchScalar() {
+        CubeKernels scalar = new CubeKernels();
+        CubeKernels selected = CubeKernels.SELECTED;
+        Random r = new Random(24);
+        for (int n = 0; n < 300; n += 1 + n / 8) {
+            byte[] expected = new byte[4 * n + 20];
+            r.nextBytes(expected);
+            byte[] actual = expected.clone();
+            int[] starts = { 3, n + 7, 2 * n + 11, 3 * n + 19 };
+            for (int quarters = 1; quarters <= 3; ++quarters) {
+                scalar.rotateRows(expected, starts[0], starts[2], starts[3], starts[1], n,
+                                  quarters);
+                selected.rotateRows(actual, starts[0], starts[2], starts[3], starts[1], n,
+                                    quarters);
+            }
+            scalar.toDigits(expected, 1, 4 * n);
+            selected.toDigits(actual, 1, 4 * n);
+            if (!Arrays.equals(expected, actual)) {
+                throw new AssertionError(selected.name() + " kernels differ for " + n
+                                         + " squares!");
+            }
+        }
+
+        for (int size : new int[] { 1, 2, 5, 64, 65, 150 }) {
+            byte[] face = new byte[size * size + 3];
+            r.nextBytes(face);
+            for (int quarters = 1; quarters <= 3; quarters += 2) {
+                byte[] turned = face.clone();
+                for (int from = 0; from < size / 2; from += 37) {
+                    selected.turnFace(turned, 3, size, quarters, from,
+                                      Math.min(size / 2, from + 37));
+                }
+                for (int i = 0; i < size; ++i) {
+                    for (int j = 0; j < size; ++j) {
+                        byte expected = quarters == 1 ? face[3 + (size - j - 1) * size + i]
+                            : face[3 + j * size + size - i - 1];
+                        if (turned[3 + i * size + j] != expected) {
+                            throw new AssertionError("Wrong turn of a face of size " + size
+                                                     + "!");
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+    // Snapshots taken while rotations go on must never catch a rotation
+    // half done, and a snapshot of a still cube is what 'show()' gives.
+    @Test
+    public void snapshotsAreConsistent() {
+        int size = 20;
+        Cube cube = new Cube(new ArrayCubeStorage(size), new AtomicProtocole(),
+                             (x, y) -> {
+        }, (x, y) -> {
+        }, () -> {
+        }, () -> {
+        });
+
+        List<Thread> rotors = new ArrayList<>();
+        for (int i = 0; i < 4; ++i) {
+            rotors.add(new Thread(() -> {
+                try {
+                    while (!Thread.currentThread().isInterrupted()) {
+                        ThreadLocalRandom r = ThreadLocalRandom.current();
+                        cube.rotate(r.nextInt(6), r.nextInt(size));
+                    }
+                } catch (InterruptedException e) {
+                }
+            }));
+        }
+        rotors.forEach(Thread::start);
+
+        try {
+            for (int i = 0; i < 300; ++i) {
+                assertCorrectSnapshot(cube.snapshot());
+            }
+        } catch (InterruptedException e) {
+            throw new AssertionError("Unexpected interruption!");
+        } finally {
+            rotors.forEach(Thread::interrupt);
+            joinAll(rotors, 10000);
+        }
+
+        try {
+            if (!cube.snapshot().toString().equals(cube.show())) {
+                throw new AssertionError("Snapshot differs from show()!");
+            }
+        } catch (InterruptedException e) {
+            throw new AssertionError("Unexpected interruption!");
+        }
+    }
+
+    // Rotations failing in their kernels (split across a pool that has been
+    // shut down) must not leave their layers marked as changing: snapshots
+    // taken afterwards still do without entering the cube, which is held by
+    // a rotation meanwhile.
+    @Test
+    public void snapshotAfterFailingKernels() {
+        int size = 6;
+        AtomicProtocole protocole = new AtomicProtocole();
+        Cube cube = new Cube(new ArrayCubeStorage(size), protocole, (x, y) -> {
+        }, (x, y) -> {
+        }, () -> {
+        }, () -> {
+        });
+        ForkJoinPool pool = new ForkJoinPool(2);
+        pool.shutdown();
+        cube.setParallelKernels(pool, 1);
+        cube.setCoalescing(true);
+
+        List<Callable<?>> failing = List.of(() -> {
+            cube.rotate(0, 2);
+            return null;
+        }, () -> {
+            cube.rotateRange(1, 1, 3);
+            return null;
+        }, () -> {
+            cube.rotateAll(new int[] { 2, 2 }, new int[] { 1, 2 });
+            return null;
+        });
+        for (Callable<?> rotation : failing) {
+            try {
+                rotation.call();
+                throw new AssertionError("A failing rotation has succeeded!");
+            } catch (RejectedExecutionException e) {
+            } catch (Exception e) {
+                throw new AssertionError("Unexpected failure: " + e);
+            }
+        }
+        cube.setParallelKernels(null, 0);
+
+        ExecutorService snapshots = Executors.newSingleThreadExecutor();
+        try {
+            protocole.rotateEntry(0);
+            try {
+                snapshots.submit(cube::snapshot).get(10, TimeUnit.SECONDS);
+            } finally {
+                protocole.rotateExit(0);
+            }
+        } catch (TimeoutException e) {
+            throw new AssertionError("The snapshot has had to enter the cube!");
+        } catch (InterruptedException | ExecutionException e) {
+            throw new AssertionError("Unexpected failure: " + e);
+        } finally {
+            snapshots.shutdownNow();
+        }
+    }
+
+    // All of the ways of showing the cube into buffers give what 'show()'
+    // gives. The cube is big enough to be written out in several chunks.
+    @Test
+    public void showIntoBuffers() throws IOException {
+        int size = 110;
+        int length = 6 * size * size;
+        Cube cube = plainCube(size);
+        Random r = new Random(7);
+        try {
+            for (int i = 0; i < 100; ++i) {
+                cube.rotate(r.nextInt(6), r.nextInt(size));
+            }
+            byte[] expected = cube.show().getBytes(StandardCharsets.US_ASCII);
+
+            byte[] array = new byte[length + 3];
+            if (cube.show(array) != length
+                || !Arrays.equals(expected, Arrays.copyOf(array, length))) {
+                throw new AssertionError("show(byte[]) differs from show()!");
+            }
+
+            ByteBuffer heap = ByteBuffer.allocate(length + 5);
+            heap.position(5);
+            cube.show(heap);
+            if (heap.position() != length + 5
+                || !Arrays.equals(expected, Arrays.copyOfRange(heap.array(), 5, length + 5))) {
+                throw new AssertionError("show(ByteBuffer) differs from show()!");
+            }
+
+            ByteBuffer direct = ByteBuffer.allocateDirect(length);
+            cube.show(direct);
+            byte[] fromDirect = new byte[length];
+            direct.flip().get(fromDirect);
+            if (!Arrays.equals(expected, fromDirect)) {
+                throw new AssertionError("show(direct ByteBuffer) differs from show()!");
+            }
+
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            cube.show(Channels.newChannel(out));
+            if (!Arrays.equals(expected, out.toByteArray())) {
+                throw new AssertionError("show(WritableByteChannel) differs from show()!");
+            }
+        } catch (InterruptedException e) {
+            throw new AssertionError("Unexpected interruption!");
+        }
+    }
+
+    // Rotations taken from a feed replayed one after another rebuild the cube,
+    // and every square that changes is among the ones an event reports.
+    @Test
+    public void feedDescribesRotations() {
+        int size = 7;
+        Cube cube = new Cube(new ArrayCubeStorage(size), new AtomicProtocole(),
+                             (x, y) -> {
+        }, (x, y) -> {
+        }, () -> {
+        }, () -> {
+        });
+        RotationFeed feed = cube.subscribe(1 << 14);
+
+        List<Thread> threads = aleatoryRotorsShowers(20, 0.1, cube, size, 200);
+        threads.forEach(Thread::start);
+        joinAll(threads, 20000);
+
+        ReferenceCube reference = new ReferenceCube(size);
+        long[] expectedSequence = { 0 };
+        feed.drain(event -> {
+            if (event.getSequence() != expectedSequence[0]++) {
+                throw new AssertionError("Events out of sequence!");
+            }
+            String before = reference.show();
+            reference.rotate(event.getSide(), event.getLayer());
+            String after = reference.show();
+
+            boolean[] reported = new boolean[before.length()];
+            for (CubeSquare square : event.changedSquares()) {
+                reported[(square.getFace() * size + square.getI()) * size
+                         + square.getJ()] = true;
+            }
+            for (int i = 0; i < before.length(); ++i) {
+                if (before.charAt(i) != after.charAt(i) && !reported[i]) {
+                    throw new AssertionError("Unreported change of square " + i);
+                }
+            }
+        });
+
+        if (feed.getDropped() != 0) {
+            throw new AssertionError("Events dropped from a big enough feed!");
+        }
+        try {
+            if (!reference.show().equals(cube.show())) {
+                throw new AssertionError("The feed does not describe the cube!");
+            }
+        } catch (InterruptedException e) {
+            throw new AssertionError("Unexpected interruption!");
+        }
+    }
+
+    // A full feed drops new events instead of stopping the rotations, a closed
+    // one does not get any more.
+    @Test
+    public void feedDropsWhenFull() {
+        Cube cube = plainCube(3);
+        RotationFeed feed = cube.subscribe(3);
+        try {
+            for (int i = 0; i < 10; ++i) {
+                cube.rotate(i % 6, i % 3);
+            }
+            if (feed.getDropped() != 6 || feed.drain(e -> {
+            }) != 4) {
+                throw new AssertionError("A feed of 4 slots should keep 4 events!");
+            }
+
+            cube.rotate(0, 0);
+            RotationEvent event = feed.poll();
+            if (event == null || event.getSequence() != 4 || event.getSide() != 0) {
+                throw new AssertionError("A drained feed should take new events!");
+            }
+
+            feed.close();
+            cube.rotate(0, 0);
+            if (feed.poll() != null) {
+                throw new AssertionError("A closed feed got an event!");
+            }
+        } catch (InterruptedException e) {
+            throw new AssertionError("Unexpected interruption!");
+        }
+    }
+
+    // Outer layers only turn the orientation of their face. Normalising the
+    // cube turns the stored squares instead and nothing visibly changes.
+    @Test
+    public void normalizeKeepsTheCube() {
+        int[] sizes = { 1, 2, 5, 8, 67, 130 };
+        Random r = new Random(1989);
+        try {
+            for (int size : sizes) {
+                ArrayCubeStorage storage = new ArrayCubeStorage(size);
+                // Odd sizes go through the storage's getters rather than
+                // the array kernels.
+                CubeStorage used = size % 2 == 0 ? storage : new CubeStorage() {
+                    public int size() {
+                        return storage.size();
+                    }
+
+                    public byte get(int index) {
+                        return storage.get(index);
+                    }
+
+                    public void set(int index, byte colour) {
+                        storage.set(index, colour);
+                    }
+
+                    public int orientation(int face) {
+                        return storage.orientation(face);
+                    }
+
+                    public void setOrientation(int face, int quarterTurns) {
+                        storage.setOrientation(face, quarterTurns);
+                    }
+                };
+                Cube cube = new Cube(used, (x, y) -> {
+                }, (x, y) -> {
+                }, () -> {
+                }, () -> {
+                });
+                ReferenceCube reference = new ReferenceCube(size);
+                for (int i = 0; i < 300; ++i) {
+                    int side = r.nextInt(6);
+                    int layer = r.nextBoolean() ? 0 : r.nextInt(size);
+                    cube.rotate(side, layer);
+                    reference.rotate(side, layer);
+                }
+
+                String expected = reference.show();
+                cube.normalize();
+                if (!cube.show().equals(expected)
+                    || !cube.snapshot().toString().equals(expected)) {
+                    throw new AssertionError("Normalisation changed the cube!");
+                }
+
+                byte[] stored = new byte[6 * size * size];
+                storage.read(0, stored, 0, stored.length);
+                for (int i = 0; i < stored.length; ++i) {
+                    if (stored[i] != expected.charAt(i) - '0') {
+                        throw new AssertionError("Squares are not stored as they look!");
+                    }
+                }
+                for (int f = 0; f < 6; ++f) {
+                    if (storage.orientation(f) != 0) {
+                        throw new AssertionError("Face " + f + " is still turned!");
+                    }
+                }
+            }
+        } catch (InterruptedException e) {
+            throw new AssertionError("Unexpected interruption!");
+        }
+    }
+
+    // A normalisation failing in its kernels (here: split across a pool that
+    // has been shut down) must not leave the cube shut for the others.
+    @Test
+    public void failingNormalize() {
+        int size = 6;
+        Cube cube = plainCube(size);
+        ForkJoinPool pool = new ForkJoinPool(2);
+        pool.shutdown();
+        try {
+            cube.rotate(0, 0);
+            cube.setParallelKernels(pool, 1);
+            try {
+                cube.normalize();
+                throw new AssertionError("The failing normalisation has succeeded!");
+            } catch (RejectedExecutionException e) {
+            }
+            cube.setParallelKernels(null, 0);
+        } catch (InterruptedException e) {
+            throw new AssertionError("Unexpected interruption!");
+        }
+
+        Thread rotor = new Thread(() -> {
+            try {
+                cube.rotate(0, 0);
+                cube.rotate(1, size - 1);
+                cube.show();
+            } catch (InterruptedException e) {
+            }
+        });
+        rotor.start();
+        joinAll(List.of(rotor), 10000);
+    }
+
+    // An executor running every task in a thread of its own: a virtual one on
+    // JVMs that have them, a bounded pool of platform threads elsewhere.
+    private static ExecutorService perTaskExecutor() {
+        try {
+            return (ExecutorService) Executors.class
+                .getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (ReflectiveOperationException e) {
+            return Executors.newFixedThreadPool(256);
+        }
+    }
+
+    // Thousands of platform threads, each rotating or showing once, all parked
+    // at once on a cube synchronised by the lock and condition based protocole:
+    // they queue up behind a rotation around axis 0 (which none of theirs is,
+    // and which shows have to wait for too) and are let go together.
+    @Test
+    public void conditionProtocoleParkedThreads() {
+        int size = 10;
+        int nrThreads = 5000;
+        ConditionProtocole protocole = new ConditionProtocole();
+        List<String> log = Collections.synchronizedList(new ArrayList<>());
+        Cube cube = new Cube(new ArrayCubeStorage(size), protocole, (x, y) -> {
+            log.add("i" + ax(x));
+        }, (x, y) -> {
+            log.add("o" + ax(x));
+        }, () -> {
+            log.add("iS");
+        }, () -> {
+            log.add("oS");
+        });
+
+        Random r = new Random(1683);
+        List<Thread> threads = new ArrayList<>();
+        for (int i = 0; i < nrThreads; ++i) {
+            boolean show = r.nextInt(5) == 0;
+            int side = 1 + r.nextInt(4);
+            int layer = r.nextInt(size);
+            // Small stacks, the threads do not need more.
+            threads.add(new Thread(null, () -> {
+                try {
+                    if (show) {
+                        cube.show();
+                    } else {
+                        cube.rotate(side, layer);
+                    }
+                } catch (InterruptedException e) {
+                }
+            }, "parked-" + i, 1 << 16));
+        }
+
+        try {
+            protocole.rotateEntry(0);
+            try {
+                threads.forEach(Thread::start);
+                long deadline = System.currentTimeMillis() + 60000;
+                for (Thread t : threads) {
+                    while (t.getState() != Thread.State.WAITING) {
+                        if (System.currentTimeMillis() > deadline) {
+                            throw new AssertionError("Threads haven't parked in time!");
+                        }
+                        Thread.sleep(1);
+                    }
+                }
+                if (!log.isEmpty()) {
+                    throw new AssertionError("A thread has got past the rotation!");
+                }
+            } finally {
+                protocole.rotateExit(0);
+            }
+        } catch (InterruptedException e) {
+            throw new AssertionError("Unexpected interruption!");
+        }
+        joinAll(threads, 60000);
+
+        if (log.size() != 2 * nrThreads) {
+            throw new AssertionError("Expected " + 2 * nrThreads + " log entries, got "
+                                     + log.size());
+        }
+        assertWellSynchronised(log);
+        assertCorrectCube(cube);
+    }
+
+    // 100 000 tasks each rotating or showing a cube synchronised by the lock
+    // and condition based protocole. With virtual threads every task has a
+    // thread of its own. Elsewhere at most the 256 threads of the fallback
+    // pool wait at a time, see conditionProtocoleParkedThreads for more.
+    @Test
+    public void conditionProtocoleManyTasks() {
+        int size = 10;
+        int nrThreads = 100000;
+        List<String> log = Collections.synchronizedList(new ArrayList<>());
+        Cube cube = new Cube(new ArrayCubeStorage(size), new ConditionProtocole(),
+                             (x, y) -> {
+            log.add("i" + ax(x));
+        }, (x, y) -> {
+            log.add("o" + ax(x));
+        }, () -> {
+            log.add("iS");
+        }, () -> {
+            log.add("oS");
+        });
+
+        ExecutorService executor = perTaskExecutor();
+        try {
+            for (int i = 0; i < nrThreads; ++i) {
+                executor.execute(() -> {
+                    ThreadLocalRandom r = ThreadLocalRandom.current();
+                    try {
+                        if (r.nextInt(5) == 0) {
+                            cube.show();
+                        } else {
+                            cube.rotate(r.nextInt(6), r.nextInt(size));
+                        }
+                    } catch (InterruptedException e) {
+                    }
+                });
+            }
+            executor.shutdown();
+            if (!executor.awaitTermination(60, TimeUnit.SECONDS)) {
+                throw new AssertionError("Threads haven't finished in time!");
+            }
+        } catch (InterruptedException e) {
+            throw new AssertionError("Unexpected interruption!");
+        } finally {
+            executor.shutdownNow();
+        }
+
+        if (log.size() != 2 * nrThreads) {
+            throw new AssertionError("Expected " + 2 * nrThreads + " log entries, got "
+                                     + log.size());
+        }
+        assertWellSynchronised(log);
+        assertCorrectCube(cube);
+    }
 }
@@ -0,0 +1,71 @@
+package concurrentcube;
+
+// Every group that has somebody waiting gets a deadline: the time its first
+// waiter came plus a slack given per group kind, and the earliest deadline
+// goes next. With equal slacks it is first come, first served between groups,
+// and every waiting thread gets in after at most three other groups, as in
+// round-robin. A smaller slack lets a group (eg. shows) overtake others that
+// came at most the difference of slacks before it; as deadlines only grow,
+// nobody waits forever.
+public class DeadlinePolicy implements SchedulingPolicy {
+    private final long rotateSlack;
+    private final long showSlack;
+
+    // When the first thread still waiting in every group came, 0 if none.
+    private final long[] since = { 0, 0, 0, 0 };
+
+    public DeadlinePolicy(long rotateSlackNanos, long showSlackNanos) {
+        this.rotateSlack = rotateSlackNanos;
+        this.showSlack = showSlackNanos;
+    }
+
+    // Equal slacks, plain first come, first served.
+    public DeadlinePolicy() {
+        this(0, 0);
+    }
+
+    @Override
+    public void queued(int group) {
+        if (since[group] == 0) {
+            // 0 stands for nobody, a clock that reads 0 just skips it.
+            since[group] = System.nanoTime() | 1;
+        }
+    }
+
+    // Once the group has nobody waiting, its next waiter starts afresh. While
+    // some are left the group keeps its time, as if the first one was still
+    // there.
+    @Override
+    public void dequeued(int group, int waiting) {
+        if (waiting == 0) {
+            since[group] = 0;
+        }
+    }
+
+    @Override
+    public boolean mayJoin(int group) {
+        return false;
+    }
+
+    @Override
+    public int next(int finished, int[] waiting) {
+        int next = -1;
+        long earliest = 0;
+        for (int group = 0; group <= SHOWS; ++group) {
+            if (waiting[group] == 0) {
+                continue;
+            }
+            long deadline = since[group] + (group == SHOWS ? showSlack : rotateSlack);
+            if (next == -1 || deadline - earliest < 0) {
+                next = group;
+                earliest = deadline;
+            }
+        }
+        return next;
+    }
+
+    @Override
+    public void handedOver(int finished, int next) {
+        since[next] = 0;
+    }
+}
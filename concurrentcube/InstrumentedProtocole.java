@@ -0,0 +1,97 @@
+package concurrentcube;
+
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.management.JMException;
+import javax.management.ObjectName;
+
+// A protocole measuring another one: how long threads wait to get in, how many
+// are waiting and how often the cube passes from one group to another. A cube
+// built with it also measures waits for its layers' locks (see
+// 'Cube.stats()'). Cubes built without it pay nothing for any of this.
+public class InstrumentedProtocole implements CubeProtocole, CubeStatsMXBean {
+    private final CubeProtocole protocole;
+
+    private final LatencyHistogram[] rotateWaits = { new LatencyHistogram(),
+        new LatencyHistogram(), new LatencyHistogram() };
+    private final LatencyHistogram showWaits = new LatencyHistogram();
+    private final LatencyHistogram layerWaits = new LatencyHistogram();
+
+    private final LongAdder waitingRotations = new LongAdder();
+    private final LongAdder waitingShows = new LongAdder();
+    private final LongAdder groupSwitches = new LongAdder();
+
+    // The group let in last. Groups never share the cube, so only the first
+    // thread of a new group finds somebody else's number here.
+    private final AtomicInteger lastGroup = new AtomicInteger(-1);
+
+    public InstrumentedProtocole(CubeProtocole protocole) {
+        this.protocole = protocole;
+    }
+
+    private void admitted(int group) {
+        if (lastGroup.get() != group) {
+            int previous = lastGroup.getAndSet(group);
+            if (previous != group && previous != -1) {
+                groupSwitches.increment();
+            }
+        }
+    }
+
+    @Override
+    public void rotateEntry(int ax) throws InterruptedException {
+        long start = System.nanoTime();
+        waitingRotations.increment();
+        try {
+            protocole.rotateEntry(ax);
+        } finally {
+            waitingRotations.decrement();
+        }
+        rotateWaits[ax].record(System.nanoTime() - start);
+        admitted(ax);
+    }
+
+    @Override
+    public void rotateExit(int ax) {
+        protocole.rotateExit(ax);
+    }
+
+    @Override
+    public void showEntry() throws InterruptedException {
+        long start = System.nanoTime();
+        waitingShows.increment();
+        try {
+            protocole.showEntry();
+        } finally {
+            waitingShows.decrement();
+        }
+        showWaits.record(System.nanoTime() - start);
+        admitted(SchedulingPolicy.SHOWS);
+    }
+
+    @Override
+    public void showExit() {
+        protocole.showExit();
+    }
+
+    // Called by the cube every time it has locked layers.
+    void layerWaited(long nanos) {
+        layerWaits.record(nanos);
+    }
+
+    @Override
+    public CubeStats getStats() {
+        return new CubeStats(new CubeStats.Latency[] { rotateWaits[0].snapshot(),
+                rotateWaits[1].snapshot(), rotateWaits[2].snapshot() },
+            showWaits.snapshot(), layerWaits.snapshot(), groupSwitches.sum(),
+            waitingRotations.sum(), waitingShows.sum());
+    }
+
+    // Make the stats visible through JMX in the platform MBean server, eg.
+    // under "concurrentcube:type=Cube,name=main".
+    public void registerMBean(String name) throws JMException {
+        ManagementFactory.getPlatformMBeanServer().registerMBean(this, new ObjectName(name));
+    }
+}
@@ -0,0 +1,80 @@
+package concurrentcube;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+// A histogram of durations in nanoseconds with buckets the way HdrHistogram
+// has them: exact below 16ns, above that every power of two is split into 8
+// buckets, so any recorded value is known within 12.5%. Recording is lock
+// free and never allocates.
+final class LatencyHistogram {
+    private static final int SUB_BUCKETS = 8;
+    private static final int SUB_BITS = 3;
+    private static final int EXACT = 2 * SUB_BUCKETS;
+
+    // Enough buckets for any non negative long.
+    private static final int BUCKETS = EXACT + (63 - SUB_BITS - 1) * SUB_BUCKETS;
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+    private final LongAdder total = new LongAdder();
+    private final LongAdder sum = new LongAdder();
+    private final LongAccumulator max = new LongAccumulator(Long::max, 0);
+
+    private static int bucket(long nanos) {
+        if (nanos < EXACT) {
+            return (int) nanos;
+        }
+        int exponent = 63 - Long.numberOfLeadingZeros(nanos);
+        int sub = (int) (nanos >>> (exponent - SUB_BITS)) & (SUB_BUCKETS - 1);
+        return EXACT + (exponent - SUB_BITS - 1) * SUB_BUCKETS + sub;
+    }
+
+    // The least value that falls into a bucket.
+    private static long lowest(int bucket) {
+        if (bucket < EXACT) {
+            return bucket;
+        }
+        int exponent = (bucket - EXACT) / SUB_BUCKETS + SUB_BITS + 1;
+        long sub = (bucket - EXACT) % SUB_BUCKETS;
+        return (SUB_BUCKETS + sub) << (exponent - SUB_BITS);
+    }
+
+    void record(long nanos) {
+        nanos = Math.max(0, nanos);
+        counts.getAndIncrement(bucket(nanos));
+        total.increment();
+        sum.add(nanos);
+        max.accumulate(nanos);
+    }
+
+    // The values are read one after another while others may be recorded, so
+    // they agree with each other only roughly.
+    CubeStats.Latency snapshot() {
+        long[] copy = new long[BUCKETS];
+        long count = 0;
+        for (int i = 0; i < BUCKETS; ++i) {
+            copy[i] = counts.get(i);
+            count += copy[i];
+        }
+
+        return new CubeStats.Latency(count, count == 0 ? 0 : sum.sum() / Math.max(1, total.sum()),
+                                     percentile(copy, count, 0.5),
+                                     percentile(copy, count, 0.9),
+                                     percentile(copy, count, 0.99), max.get());
+    }
+
+    // The lowest value of the bucket where the given fraction of the values
+    // is reached.
+    private static long percentile(long[] counts, long count, double fraction) {
+        long rank = (long) Math.ceil(fraction * count);
+        long seen = 0;
+        for (int i = 0; i < counts.length; ++i) {
+            seen += counts[i];
+            if (seen >= rank && seen > 0) {
+                return lowest(i);
+            }
+        }
+        return 0;
+    }
+}
@@ -0,0 +1,18 @@
+package concurrentcube;
+
+// Mutual exclusion of the layers of a cube. Only rotations of one axis group
+// are inside the cube at a time, so a layer is counted with respect to that
+// axis. Whoever locks more than one layer must do it in one call, with the
+// layers sorted in ascending order and without repetitions; implementations
+// take them in an order that cannot deadlock.
+public interface LayerLocks {
+    void acquire(int layer) throws InterruptedException;
+
+    void release(int layer);
+
+    // Lock the first n of the given layers. If interrupted, no layer stays
+    // locked.
+    void acquire(int[] layers, int n) throws InterruptedException;
+
+    void release(int[] layers, int n);
+}
@@ -0,0 +1,142 @@
+package concurrentcube;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+// Storage of a cube kept off the heap in a memory mapped file. Meant for cubes
+// too big to comfortably live on the heap: the squares are paged in and out by
+// the operating system and reopening the file maps the very same bytes again
+// without reading or copying them.
+//
+// The file starts with a header (magic number, format version, the size of
+// the cube and one byte per face for its orientation) followed by the squares,
+// one byte each, in the layout described in CubeStorage.
+public class MappedCubeStorage implements CubeStorage, Closeable {
+    private static final int MAGIC = 0x43554245; // "CUBE"
+    private static final int VERSION = 1;
+    private static final int ORIENTATIONS = 12;
+    private static final int HEADER_SIZE = 32;
+
+    private final int size;
+    private final FileChannel channel;
+    private final MappedByteBuffer buffer;
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    @Override
+    public byte get(int index) {
+        return buffer.get(HEADER_SIZE + index);
+    }
+
+    @Override
+    public void set(int index, byte colour) {
+        buffer.put(HEADER_SIZE + index, colour);
+    }
+
+    @Override
+    public int orientation(int face) {
+        return buffer.get(ORIENTATIONS + face);
+    }
+
+    @Override
+    public void setOrientation(int face, int quarterTurns) {
+        buffer.put(ORIENTATIONS + face, (byte) quarterTurns);
+    }
+
+    @Override
+    public void read(int index, byte[] dst, int offset, int length) {
+        buffer.get(HEADER_SIZE + index, dst, offset, length);
+    }
+
+    @Override
+    public void write(int index, byte[] src, int offset, int length) {
+        buffer.put(HEADER_SIZE + index, src, offset, length);
+    }
+
+    // Write all changes made so far back to the file.
+    @Override
+    public void force() {
+        buffer.force();
+    }
+
+    // Closes the file. The mapping itself stays valid until the storage is
+    // garbage collected so it must not be used by any cube afterwards.
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+
+    // Create a new file holding a solved cube of a given size. Fails if the
+    // file already exists.
+    public static MappedCubeStorage create(Path file, int size) throws IOException {
+        if (size < 1 || size > MAX_SIZE) {
+            throw new IllegalArgumentException("Invalid cube size: " + size);
+        }
+
+        FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE_NEW,
+                                               StandardOpenOption.READ,
+                                               StandardOpenOption.WRITE);
+        try {
+            long length = HEADER_SIZE + 6L * size * size;
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_WRITE,
+                                                  0, length);
+            buffer.putInt(0, MAGIC);
+            buffer.putInt(4, VERSION);
+            buffer.putInt(8, size);
+
+            int faceSize = size * size;
+            for (int f = 0; f < 6; ++f) {
+                for (int i = 0; i < faceSize; ++i) {
+                    buffer.put(HEADER_SIZE + f * faceSize + i, (byte) f);
+                }
+            }
+            buffer.force();
+
+            return new MappedCubeStorage(size, channel, buffer);
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    // Map a file written earlier by a MappedCubeStorage.
+    public static MappedCubeStorage open(Path file) throws IOException {
+        FileChannel channel = FileChannel.open(file, StandardOpenOption.READ,
+                                               StandardOpenOption.WRITE);
+        try {
+            long length = channel.size();
+            if (length < HEADER_SIZE) {
+                throw new IOException("Not a cube file: " + file);
+            }
+
+            MappedByteBuffer header = channel.map(FileChannel.MapMode.READ_ONLY,
+                                                  0, HEADER_SIZE);
+            int size = header.getInt(8);
+            if (header.getInt(0) != MAGIC || header.getInt(4) != VERSION
+                || size < 1 || size > MAX_SIZE
+                || length != HEADER_SIZE + 6L * size * size) {
+                throw new IOException("Not a cube file: " + file);
+            }
+
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_WRITE,
+                                                  0, length);
+            return new MappedCubeStorage(size, channel, buffer);
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    private MappedCubeStorage(int size, FileChannel channel, MappedByteBuffer buffer) {
+        this.size = size;
+        this.channel = channel;
+        this.buffer = buffer;
+    }
+}
@@ -0,0 +1,80 @@
+package concurrentcube;
+
+import java.util.ArrayList;
+import java.util.List;
+
+// A completed rotation as delivered by a RotationFeed: the arguments that were
+// passed to 'Cube.rotate(int, int)' and the number of the event in its feed.
+public final class RotationEvent {
+    private final long sequence;
+    private final int size;
+    private final int side;
+    private final int layer;
+
+    RotationEvent(long sequence, int size, int side, int layer) {
+        this.sequence = sequence;
+        this.size = size;
+        this.side = side;
+        this.layer = layer;
+    }
+
+    public long getSequence() {
+        return sequence;
+    }
+
+    public int getSide() {
+        return side;
+    }
+
+    public int getLayer() {
+        return layer;
+    }
+
+    // The axis (0 or 1 or 2) of the rotation.
+    public int getAxis() {
+        return CubeGeometry.axis(side);
+    }
+
+    // The layer counted with respect to the axis.
+    public int getAxisLayer() {
+        return CubeGeometry.axisLayer(size, side, layer);
+    }
+
+    // Whether the rotation was clockwise when looking at the axis' face.
+    public boolean isClockwise() {
+        return side == getAxis();
+    }
+
+    // All squares whose colours may have changed: the four strips moved around
+    // the axis and a whole face if an outer layer was turned.
+    public List<CubeSquare> changedSquares() {
+        int ax = getAxis();
+        int axisLayer = getAxisLayer();
+        List<CubeSquare> squares = new ArrayList<>(4 * size);
+
+        for (int k = 0; k < 4; ++k) {
+            int face = CubeGeometry.stripFace(ax, k);
+            for (int i = 0; i < size; ++i) {
+                squares.add(new CubeSquare(face,
+                                           CubeGeometry.stripRow(size, ax, axisLayer, k, i),
+                                           CubeGeometry.stripColumn(size, ax, axisLayer, k, i)));
+            }
+        }
+
+        int face = -1;
+        if (axisLayer == 0) {
+            face = ax;
+        } else if (axisLayer == size - 1) {
+            face = CubeGeometry.oppositeFace(ax);
+        }
+        if (face != -1) {
+            for (int i = 0; i < size; ++i) {
+                for (int j = 0; j < size; ++j) {
+                    squares.add(new CubeSquare(face, i, j));
+                }
+            }
+        }
+
+        return squares;
+    }
+}
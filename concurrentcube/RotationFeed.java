@@ -0,0 +1,110 @@
+package concurrentcube;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.function.Consumer;
+
+// A subscription to the rotations of a cube (see 'Cube.subscribe(int)').
+// Rotating threads put every completed rotation into a bounded ring buffer
+// from which a single consumer takes them at its own pace. Rotations are
+// published from within the cube so rotations around different axes come in
+// the order they were done; rotations of one group commute anyway. A rotating
+// thread never waits for the consumer: should the buffer be full, the event is
+// dropped and counted instead. A consumer that sees drops has lost track of
+// the cube and ought to start over from a snapshot.
+//
+// The buffer is the bounded queue of D. Vyukov: every slot has a sequence
+// number telling whether it is free for the producer of a given ticket or
+// ready for the consumer.
+public final class RotationFeed implements AutoCloseable {
+    private final Cube cube;
+    private final int size;
+    private final int mask;
+
+    // Published rotations, side and layer packed into one number.
+    private final long[] moves;
+    private final AtomicLongArray sequences;
+
+    // Next ticket for producers.
+    private final AtomicLong tail = new AtomicLong();
+
+    // Next ticket for the consumer. Touched only by the consumer.
+    private long head = 0;
+
+    private final AtomicLong dropped = new AtomicLong();
+
+    RotationFeed(Cube cube, int size, int capacity) {
+        if (capacity < 1 || capacity > (1 << 30)) {
+            throw new IllegalArgumentException("Invalid capacity: " + capacity);
+        }
+
+        int slots = Integer.highestOneBit(capacity);
+        if (slots < capacity) {
+            slots <<= 1;
+        }
+
+        this.cube = cube;
+        this.size = size;
+        this.mask = slots - 1;
+        this.moves = new long[slots];
+        this.sequences = new AtomicLongArray(slots);
+        for (int i = 0; i < slots; ++i) {
+            sequences.set(i, i);
+        }
+    }
+
+    // Called by a rotating thread inside the cube.
+    void publish(int side, int layer) {
+        long ticket = tail.get();
+        for (;;) {
+            int slot = (int) ticket & mask;
+            long diff = sequences.get(slot) - ticket;
+            if (diff == 0) {
+                if (tail.compareAndSet(ticket, ticket + 1)) {
+                    moves[slot] = ((long) side << 32) | (layer & 0xFFFFFFFFL);
+                    sequences.setRelease(slot, ticket + 1);
+                    return;
+                }
+            } else if (diff < 0) {
+                // The consumer has not freed the slot yet: the buffer is full.
+                dropped.incrementAndGet();
+                return;
+            }
+            ticket = tail.get();
+        }
+    }
+
+    // Take the oldest rotation from the feed, null if there is none.
+    public RotationEvent poll() {
+        int slot = (int) head & mask;
+        if (sequences.get(slot) != head + 1) {
+            return null;
+        }
+
+        long move = moves[slot];
+        sequences.setRelease(slot, head + mask + 1);
+        return new RotationEvent(head++, size, (int) (move >>> 32), (int) move);
+    }
+
+    // Pass all of the rotations waiting in the feed to a consumer. Returns how
+    // many there were.
+    public int drain(Consumer<RotationEvent> consumer) {
+        int n = 0;
+        for (RotationEvent event = poll(); event != null; event = poll()) {
+            consumer.accept(event);
+            ++n;
+        }
+        return n;
+    }
+
+    // Number of rotations lost because the buffer was full.
+    public long getDropped() {
+        return dropped.get();
+    }
+
+    // Stop receiving rotations.
+    @Override
+    public void close() {
+        cube.unsubscribe(this);
+    }
+}
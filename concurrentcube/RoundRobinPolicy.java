@@ -0,0 +1,39 @@
+package concurrentcube;
+
+// The policy of SemaphoreProtocole: after an axis group shows go first, after
+// shows the axes are tried round-robin starting from the one after the last
+// axis that rotated. Nobody joins a running group while somebody waits, so
+// every waiting thread gets in after at most three other groups.
+public class RoundRobinPolicy implements SchedulingPolicy {
+    // Last axis that have been used in rotation.
+    private int lastAx = 0;
+
+    @Override
+    public boolean mayJoin(int group) {
+        return false;
+    }
+
+    @Override
+    public int next(int finished, int[] waiting) {
+        if (finished != SHOWS && waiting[SHOWS] > 0) {
+            return SHOWS;
+        }
+
+        int from = finished == SHOWS ? lastAx : finished;
+        for (int j = 1; j <= 3; ++j) {
+            int i = (from + j) % 3;
+            if (waiting[i] > 0) {
+                return i;
+            }
+        }
+
+        return waiting[SHOWS] > 0 ? SHOWS : -1;
+    }
+
+    @Override
+    public void handedOver(int finished, int next) {
+        if (finished != SHOWS) {
+            lastAx = finished;
+        }
+    }
+}
@@ -0,0 +1,37 @@
+package concurrentcube;
+
+// The order in which a protocole (AtomicProtocole or ConditionProtocole) lets
+// groups into the cube. Groups are the axes 0, 1 and 2 and SHOWS. The
+// protocole calls the policy under its lock, so a policy needs no
+// synchronisation of its own, but it keeps the state of one protocole and
+// cannot be shared between them.
+//
+// A protocole always lets a whole waiting group in at once. Starvation
+// freedom thus only needs 'next()' to pick every waiting group sooner or later
+// and 'mayJoin()' to keep the running group from growing forever.
+public interface SchedulingPolicy {
+    int SHOWS = 3;
+
+    // A thread of the group has started waiting.
+    default void queued(int group) {
+    }
+
+    // A thread of the group has stopped waiting without getting in (it has
+    // been interrupted), waiting threads of the group are left.
+    default void dequeued(int group, int waiting) {
+    }
+
+    // Whether a thread of the group inside the cube may join it even though
+    // others are waiting. Called only while somebody waits.
+    boolean mayJoin(int group);
+
+    // The group to be let in after the finished one, given the numbers of
+    // threads waiting in every group, -1 if none should be (only if nobody
+    // waits). The protocole might not follow the choice if the cube changes
+    // meanwhile, so the policy should remember nothing here.
+    int next(int finished, int[] waiting);
+
+    // The cube has been handed over from the finished group to the next one,
+    // as 'next()' has chosen.
+    void handedOver(int finished, int next);
+}
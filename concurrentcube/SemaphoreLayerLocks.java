@@ -0,0 +1,53 @@
+package concurrentcube;
+
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+// A fair semaphore per layer. The semaphores are made when their layers are
+// first rotated, so a cube nobody touches costs one reference per layer.
+public class SemaphoreLayerLocks implements LayerLocks {
+    private final AtomicReferenceArray<Semaphore> mutices;
+
+    public SemaphoreLayerLocks(int size) {
+        this.mutices = new AtomicReferenceArray<>(size);
+    }
+
+    // The mutex of a layer, made if it is the first time somebody needs it.
+    private Semaphore mutex(int layer) {
+        Semaphore mutex = mutices.get(layer);
+        if (mutex == null) {
+            mutices.compareAndSet(layer, null, new Semaphore(1, true));
+            mutex = mutices.get(layer);
+        }
+        return mutex;
+    }
+
+    @Override
+    public void acquire(int layer) throws InterruptedException {
+        mutex(layer).acquire();
+    }
+
+    @Override
+    public void release(int layer) {
+        mutex(layer).release();
+    }
+
+    @Override
+    public void acquire(int[] layers, int n) throws InterruptedException {
+        for (int i = 0; i < n; ++i) {
+            try {
+                mutex(layers[i]).acquire();
+            } catch (InterruptedException e) {
+                release(layers, i);
+                throw e;
+            }
+        }
+    }
+
+    @Override
+    public void release(int[] layers, int n) {
+        for (int i = 0; i < n; ++i) {
+            mutex(layers[i]).release();
+        }
+    }
+}
@@ -0,0 +1,176 @@
+package concurrentcube;
+
+import java.util.concurrent.Semaphore;
+
+// The classic protocole of the cube built on fair semaphores.
+// Threads pass the mutex on to the ones they wake up ("baton passing"): whoever
+// lets another thread in does not release the mutex, the woken up thread
+// inherits it instead.
+public class SemaphoreProtocole implements CubeProtocole {
+    // Straight forward mutex for protecting sync variables.
+    private final Semaphore mutex = new Semaphore(1, true);
+
+    // Semaphores for different axis groups to wait on.
+    private final Semaphore[] axisMutices = { new Semaphore(0, true),
+        new Semaphore(0, true), new Semaphore(0, true) };
+
+    // Counters of awaiting rotating threads.
+    private final int[] waiting = { 0, 0, 0 };
+
+    // Who has the right to rotate, which axis. Set to -1 if there's no willing
+    // thread or the current axis number (0, 1, 2) or 4 as a dummy axis for
+    // 'show()'.
+    private int currentRotor = -1;
+
+    // Last axis that have been used in rotation.
+    private int lastAx = 0;
+
+    // How many rotors rotating in the critical section right now.
+    private int rotorsCount = 0;
+
+    // Same but for showing.
+    private int showersCount = 0;
+
+    // Waiting show operations.
+    private int waitingShows = 0;
+
+    // Semaphore for 'show()' to wait on.
+    private Semaphore showing = new Semaphore(0, true);
+
+    // Number of waiting threads from different axis than ax.
+    private boolean otherAxWaiting(int ax) {
+        if (ax == 0) {
+            return waiting[1] > 0 && waiting[2] > 0;
+        } else if (ax == 1) {
+            return waiting[0] > 0 && waiting[2] > 0;
+        } else if (ax == 2) {
+            return waiting[0] > 0 && waiting[1] > 0;
+        } else {
+            return waiting[0] > 0 && waiting[1] > 0 && waiting[2] > 0;
+        }
+    }
+
+    // Synchronisation for the rotate operations.
+    @Override
+    public void rotateEntry(int ax) throws InterruptedException {
+        mutex.acquire();
+
+        if (currentRotor == -1) {
+            currentRotor = ax;
+        }
+
+        if (currentRotor != ax || otherAxWaiting(ax) || waitingShows > 0) {
+            ++waiting[ax];
+            mutex.release();
+            try {
+                axisMutices[ax].acquire();
+            } catch (InterruptedException e) {
+                mutex.acquireUninterruptibly();
+                --waiting[ax];
+                mutex.release();
+                throw e;
+            }
+            // We assume we inherit the mutex here having been woken up.
+            --waiting[ax];
+        }
+        ++rotorsCount;
+
+        if (waiting[ax] != 0) {
+            // Waking up fellow thread from the same axis to enter the critical
+            // section with us.
+            axisMutices[ax].release();
+        } else {
+            mutex.release();
+        }
+    }
+
+    // This procedure makes the current wake up those that are waiting if the
+    // time is appropriate.
+    private void rotateLetOthersIn(int ax) {
+        // After a rotation we prioritise the entry of a waiting 'show' thread
+        // (and vice versa) thus ending up safe from starvation problems.
+        if (rotorsCount == 0 && waitingShows > 0) {
+            lastAx = ax;
+            // Note: there is no such axis, it is an indicator that we let
+            // showing happen instead of another axis group.
+            currentRotor = 4;
+            showing.release();
+        } else if (rotorsCount == 0) {
+            for (int j = 1; j <= 3; ++j) {
+                int i = (ax + j) % 3;
+                if (waiting[i] > 0) {
+                    currentRotor = i;
+                    axisMutices[i].release();
+                    // I don't release the mutex as it will be inherited
+                    return;
+                }
+            }
+            currentRotor = -1;
+            mutex.release();
+        } else {
+            mutex.release();
+        }
+    }
+
+    // The exit protocole after a rotation.
+    @Override
+    public void rotateExit(int ax) {
+        mutex.acquireUninterruptibly();
+        --rotorsCount;
+        rotateLetOthersIn(ax);
+    }
+
+    // Synchronisation for the 'show()' operations. Similar to rotations' sync.
+    @Override
+    public void showEntry() throws InterruptedException {
+        mutex.acquire();
+        if (otherAxWaiting(4) || currentRotor != -1) {
+            ++waitingShows;
+            mutex.release();
+            try {
+                showing.acquire();
+            } catch (InterruptedException e) {
+                mutex.acquireUninterruptibly();
+                --waitingShows;
+                mutex.release();
+                throw e;
+            }
+            --waitingShows;
+        } else {
+            currentRotor = 4;
+        }
+        ++showersCount;
+        if (waitingShows != 0) {
+            showing.release();
+        } else {
+            mutex.release();
+        }
+    }
+
+    // Ditto.
+    @Override
+    public void showExit() {
+        mutex.acquireUninterruptibly();
+        --showersCount;
+        if (showersCount == 0) {
+            // Prioritise axes over showings here.
+            for (int j = 1; j <= 3; ++j) {
+                int i = (lastAx + j) % 3;
+                if (waiting[i] > 0) {
+                    currentRotor = i;
+                    axisMutices[i].release();
+                    // I don't release the mutex as it will be inherited
+                    return;
+                }
+            }
+            if (waitingShows > 0) {
+                showing.release();
+            } else {
+                currentRotor = -1;
+                mutex.release();
+            }
+        } else {
+            mutex.release();
+        }
+    }
+}
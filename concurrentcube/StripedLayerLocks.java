@@ -0,0 +1,76 @@
+package concurrentcube;
+
+import java.util.Arrays;
+import java.util.concurrent.Semaphore;
+
+// A fixed number of fair semaphores shared by all layers, layer l going to
+// stripe l % stripes, so that neighbouring layers (eg. of a range) never
+// share one. Memory does not grow with the cube, at the price of rotations of
+// layers of one stripe excluding each other. Several layers are locked by
+// their stripes in ascending order of the stripes.
+public class StripedLayerLocks implements LayerLocks {
+    private final Semaphore[] stripes;
+
+    public StripedLayerLocks(int stripes) {
+        if (stripes < 1) {
+            throw new IllegalArgumentException("Invalid number of stripes: " + stripes);
+        }
+        this.stripes = new Semaphore[stripes];
+        for (int i = 0; i < stripes; ++i) {
+            this.stripes[i] = new Semaphore(1, true);
+        }
+    }
+
+    private Semaphore stripe(int layer) {
+        return stripes[layer % stripes.length];
+    }
+
+    @Override
+    public void acquire(int layer) throws InterruptedException {
+        stripe(layer).acquire();
+    }
+
+    @Override
+    public void release(int layer) {
+        stripe(layer).release();
+    }
+
+    // Distinct stripes of the first n layers, in ascending order, at the front
+    // of the returned array.
+    private int[] stripesOf(int[] layers, int n) {
+        int[] of = new int[n];
+        for (int i = 0; i < n; ++i) {
+            of[i] = layers[i] % stripes.length;
+        }
+        Arrays.sort(of);
+        int distinct = 0;
+        for (int i = 0; i < n; ++i) {
+            if (distinct == 0 || of[distinct - 1] != of[i]) {
+                of[distinct++] = of[i];
+            }
+        }
+        return Arrays.copyOf(of, distinct);
+    }
+
+    @Override
+    public void acquire(int[] layers, int n) throws InterruptedException {
+        int[] of = stripesOf(layers, n);
+        for (int i = 0; i < of.length; ++i) {
+            try {
+                stripes[of[i]].acquire();
+            } catch (InterruptedException e) {
+                for (int j = 0; j < i; ++j) {
+                    stripes[of[j]].release();
+                }
+                throw e;
+            }
+        }
+    }
+
+    @Override
+    public void release(int[] layers, int n) {
+        for (int stripe : stripesOf(layers, n)) {
+            stripes[stripe].release();
+        }
+    }
+}
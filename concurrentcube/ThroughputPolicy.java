@@ -0,0 +1,41 @@
+package concurrentcube;
+
+// Round-robin (see RoundRobinPolicy) that lets the running group go on
+// a little longer: up to a given number of its threads may still join it
+// after somebody else has started waiting. It suits workloads dominated by
+// one axis, which otherwise switch groups every time a stray rotation or
+// show comes. A waiting thread gets in after at most three other groups, each
+// of them grown by at most that many late threads.
+public class ThroughputPolicy extends RoundRobinPolicy {
+    private final int joins;
+
+    // The group that latecomers have been joining and how many have.
+    private int joinGroup = -1;
+    private int joined = 0;
+
+    public ThroughputPolicy(int joins) {
+        if (joins < 0) {
+            throw new IllegalArgumentException("Invalid number of joins: " + joins);
+        }
+        this.joins = joins;
+    }
+
+    @Override
+    public boolean mayJoin(int group) {
+        if (group != joinGroup) {
+            joinGroup = group;
+            joined = 0;
+        }
+        if (joined < joins) {
+            ++joined;
+            return true;
+        }
+        return false;
+    }
+
+    @Override
+    public void handedOver(int finished, int next) {
+        super.handedOver(finished, next);
+        joinGroup = -1;
+    }
+}
@@ -1,13 +1,18 @@
 #!/bin/sh
 
 # Run junit tests from the commandline. You need to have the console standalone
-# launcher jar saved here.
+# launcher jar saved here. With Maven 'mvn test' does the same, see pom.xml.
+
+# The SIMD kernels need the incubating Vector API (see CubeKernels). Add
+# -Dconcurrentcube.kernels=scalar to the java command to test the plain ones.
+VECTOR="--add-modules jdk.incubator.vector"
 
 echo Compling sources...
 
-javac -d target -cp target:junit-platform-console-standalone-1.8.1.jar concurrentcube/*.java
+javac -encoding UTF-8 -d target -cp target:junit-platform-console-standalone-1.8.1.jar $VECTOR \
+      concurrentcube/*.java vector/concurrentcube/*.java
 
 echo Running JUNIT tests.
 
-java -jar junit-platform-console-standalone-1.8.1.jar --class-path target \
+java $VECTOR -jar junit-platform-console-standalone-1.8.1.jar --class-path target \
      --select-class concurrentcube.CubeTest
@@ -0,0 +1,64 @@
+package concurrentcube;
+
+import jdk.incubator.vector.ByteVector;
+import jdk.incubator.vector.VectorSpecies;
+
+// CubeKernels done with the incubating Vector API, a whole register of squares
+// at a time. Compile and run with --add-modules jdk.incubator.vector; the
+// cubes pick these kernels up by themselves then (see CubeKernels).
+//
+// Turning a face moves squares between rows and columns, for which the API
+// has no cheap byte shuffles across vectors yet, so it stays the tiled loop.
+final class VectorKernels extends CubeKernels {
+    private static final VectorSpecies<Byte> SPECIES = ByteVector.SPECIES_PREFERRED;
+
+    private static final byte ZERO = '0';
+
+    @Override
+    String name() {
+        return "vector";
+    }
+
+    @Override
+    void rotateRows(byte[] a, int s0, int s1, int s2, int s3, int n, int quarters) {
+        int length = SPECIES.loopBound(n);
+        int i = 0;
+        for (; i < length; i += SPECIES.length()) {
+            ByteVector v0 = ByteVector.fromArray(SPECIES, a, s0 + i);
+            ByteVector v1 = ByteVector.fromArray(SPECIES, a, s1 + i);
+            ByteVector v2 = ByteVector.fromArray(SPECIES, a, s2 + i);
+            ByteVector v3 = ByteVector.fromArray(SPECIES, a, s3 + i);
+            switch (quarters) {
+
+            case 1:
+                v1.intoArray(a, s0 + i);
+                v2.intoArray(a, s1 + i);
+                v3.intoArray(a, s2 + i);
+                v0.intoArray(a, s3 + i);
+                break;
+            case 2:
+                v2.intoArray(a, s0 + i);
+                v3.intoArray(a, s1 + i);
+                v0.intoArray(a, s2 + i);
+                v1.intoArray(a, s3 + i);
+                break;
+            default:
+                v3.intoArray(a, s0 + i);
+                v0.intoArray(a, s1 + i);
+                v1.intoArray(a, s2 + i);
+                v2.intoArray(a, s3 + i);
+            }
+        }
+        super.rotateRows(a, s0 + i, s1 + i, s2 + i, s3 + i, n - i, quarters);
+    }
+
+    @Override
+    void toDigits(byte[] a, int offset, int n) {
+        int length = SPECIES.loopBound(n);
+        int i = 0;
+        for (; i < length; i += SPECIES.length()) {
+            ByteVector.fromArray(SPECIES, a, offset + i).add(ZERO).intoArray(a, offset + i);
+        }
+        super.toDigits(a, offset + i, n - i);
+    }
+}